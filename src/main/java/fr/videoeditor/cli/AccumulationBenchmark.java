@@ -0,0 +1,90 @@
+package fr.videoeditor.cli;
+
+import fr.videoeditor.export.StackAccumulator;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+
+/**
+ * Mesure du débit d'accumulation (frames/s) sur des frames 8 bits synthétiques:
+ * ancienne boucle (convertTo CV_32F dans une Mat neuve puis add) contre
+ * StackAccumulator (somme entière CV_32S en une passe).
+ *
+ * <pre>
+ * BatchRunner bench [largeur hauteur frames]
+ * </pre>
+ */
+public class AccumulationBenchmark {
+    
+    /** Frames distinctes générées, réutilisées en boucle */
+    private static final int DISTINCT_FRAMES = 8;
+    
+    public static void run(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+        
+        Mat[] sources = new Mat[DISTINCT_FRAMES];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new Mat(height, width, CV_8UC3);
+            randu(sources[i], new Mat(1, 1, CV_64F, Scalar.all(0)),
+                  new Mat(1, 1, CV_64F, Scalar.all(256)));
+        }
+        
+        System.out.printf("Accumulation de %d frames %dx%d BGR 8 bits%n", frames, width, height);
+        
+        // Premier passage pour chauffer le JIT et les allocateurs natifs
+        legacy(sources, Math.min(frames, 20)).release();
+        integer(sources, Math.min(frames, 20)).release();
+        
+        long start = System.nanoTime();
+        Mat legacyMean = legacy(sources, frames);
+        double legacySeconds = (System.nanoTime() - start) / 1e9;
+        
+        start = System.nanoTime();
+        Mat integerMean = integer(sources, frames);
+        double integerSeconds = (System.nanoTime() - start) / 1e9;
+        
+        double maxDifference = norm(legacyMean, integerMean, NORM_INF, noArray());
+        
+        System.out.printf("convertTo(CV_32F) + add : %8.1f frames/s%n", frames / legacySeconds);
+        System.out.printf("somme entière CV_32S    : %8.1f frames/s (x%.2f)%n",
+                          frames / integerSeconds, legacySeconds / integerSeconds);
+        System.out.printf("écart max des moyennes  : %.6f%n", maxDifference);
+        
+        legacyMean.release();
+        integerMean.release();
+        for (Mat source : sources) {
+            source.release();
+        }
+    }
+    
+    /**
+     * Boucle d'origine: conversion dans une Mat temporaire par frame, puis addition
+     */
+    private static Mat legacy(Mat[] sources, int frames) {
+        Mat sum = null;
+        for (int i = 0; i < frames; i++) {
+            Mat frame32F = new Mat();
+            sources[i % sources.length].convertTo(frame32F, CV_32F);
+            if (sum == null) {
+                sum = new Mat();
+                frame32F.copyTo(sum);
+            } else {
+                add(sum, frame32F, sum);
+            }
+            frame32F.release();
+        }
+        sum.convertTo(sum, -1, 1.0 / frames, 0);
+        return sum;
+    }
+    
+    private static Mat integer(Mat[] sources, int frames) {
+        StackAccumulator accumulator = new StackAccumulator();
+        for (int i = 0; i < frames; i++) {
+            accumulator.addFrame(sources[i % sources.length]);
+        }
+        Mat mean = accumulator.mean();
+        accumulator.release();
+        return mean;
+    }
+}
@@ -0,0 +1,344 @@
+package fr.videoeditor.cli;
+
+import fr.videoeditor.export.ExtractionOptions;
+import fr.videoeditor.export.FrameExtractor;
+import fr.videoeditor.export.ImageStacker;
+import fr.videoeditor.export.StackingOptions;
+import fr.videoeditor.export.VideoExporter;
+import fr.videoeditor.model.VideoSegment;
+import fr.videoeditor.repair.MP4Rebuilder;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Description d'un traitement en ligne de commande: un type suivi de paires clé=valeur,
+ * par exemple "stack input=capture.mp4 start=10 end=60 offset=0-5 format=fits output=m42.fits".
+ * Les temps sont en secondes, les valeurs contenant des espaces se mettent entre guillemets.
+ */
+public class BatchJob {
+    
+    public enum Type {
+        STACK, EXTRACT, EXPORT, EXPORT_AVI, REPAIR;
+        
+        static Type parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Type de traitement inconnu: " + name);
+            }
+        }
+    }
+    
+    private final Type type;
+    private final Map<String, String> values;
+    private final String description;
+    
+    private BatchJob(Type type, Map<String, String> values, String description) {
+        this.type = type;
+        this.values = values;
+        this.description = description;
+    }
+    
+    /**
+     * Analyse une ligne de description; null pour une ligne vide ou un commentaire (#)
+     */
+    public static BatchJob parse(String line) {
+        List<String> tokens = tokenize(line.trim());
+        if (tokens.isEmpty() || tokens.get(0).startsWith("#")) {
+            return null;
+        }
+        return parse(tokens);
+    }
+    
+    /**
+     * Construit un traitement à partir de tokens déjà découpés (arguments de main)
+     */
+    public static BatchJob parse(List<String> tokens) {
+        Type type = Type.parse(tokens.get(0));
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String token : tokens.subList(1, tokens.size())) {
+            int equals = token.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Paramètre invalide (clé=valeur attendu): " + token);
+            }
+            values.put(token.substring(0, equals).toLowerCase(Locale.ROOT), token.substring(equals + 1));
+        }
+        
+        BatchJob job = new BatchJob(type, values, String.join(" ", tokens));
+        job.require("input");
+        job.require("output");
+        return job;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    /**
+     * Exécute le traitement dans le thread appelant; retourne le message de fin
+     * @param defaultWorkers décodeurs parallèles si la description n'en fixe pas
+     */
+    String run(JobLog log, int defaultWorkers) throws Exception {
+        File output = new File(values.get("output"));
+        double brightness = getDouble("brightness", 1.0);
+        
+        switch (type) {
+            case STACK: {
+                VideoSegment segment = segment(new File(values.get("input")));
+                String format = values.getOrDefault("format", extension(output, "png"));
+                return ImageStacker.stack(segment, output, format, brightness,
+                                          stackingOptions(output, defaultWorkers), log);
+            }
+            case EXTRACT: {
+                List<VideoSegment> segments = extractionSegments();
+                String format = values.getOrDefault("format", "png");
+                int frames = segments.size() == 1
+                    ? FrameExtractor.extract(segments.get(0), output, format, extractionOptions(), log)
+                    : FrameExtractor.extractAll(segments, output, format, extractionOptions(), log);
+                return String.format("%d frames extraites dans %s", frames, output.getAbsolutePath());
+            }
+            case EXPORT:
+            case EXPORT_AVI: {
+                List<VideoSegment> segments = new ArrayList<>();
+                for (String input : values.get("input").split(",")) {
+                    segments.add(segment(new File(input.trim())));
+                }
+                boolean calibrate = getBoolean("calibrate", false);
+                if (type == Type.EXPORT) {
+                    VideoExporter.export(segments, output, brightness, calibrate,
+                                         getInt("workers", defaultWorkers),
+                                         getDouble("chunk", VideoExporter.DEFAULT_CHUNK_SECONDS), log);
+                } else {
+                    VideoExporter.exportAVI(segments, output, brightness, calibrate, log);
+                }
+                return "Export réussi: " + output.getAbsolutePath();
+            }
+            case REPAIR: {
+                File repaired = MP4Rebuilder.repairWithoutReference(new File(values.get("input")),
+                                                                    output, log);
+                return "Fichier réparé: " + repaired.getAbsolutePath();
+            }
+            default:
+                throw new IllegalStateException("Type non géré: " + type);
+        }
+    }
+    
+    /**
+     * Segment du fichier, durée lue par FFmpeg, points d'entrée/sortie et plages de calibration
+     */
+    private VideoSegment segment(File videoFile) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        double duration;
+        try {
+            grabber.start();
+            duration = grabber.getLengthInTime() / 1_000_000.0;
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+        }
+        
+        VideoSegment segment = new VideoSegment(videoFile, duration);
+        segment.setEndTime(getDouble("end", duration));
+        segment.setStartTime(getDouble("start", 0));
+        
+        double[] offset = range("offset");
+        if (offset != null) {
+            segment.setOffsetStart(offset[0]);
+            segment.setOffsetEnd(offset[1]);
+            segment.setOffsetEnabled(true);
+        }
+        
+        double[] bias = range("bias");
+        if (bias != null) {
+            segment.setBiasStart(bias[0]);
+            segment.setBiasEnd(bias[1]);
+            segment.setBiasEnabled(true);
+        }
+        
+        double[] flat = range("flat");
+        if (flat != null) {
+            if (values.containsKey("flatfile")) {
+                segment.setFlatFile(new File(values.get("flatfile")));
+            }
+            segment.setFlatStart(flat[0]);
+            segment.setFlatEnd(flat[1]);
+            segment.setFlatEnabled(true);
+        }
+        return segment;
+    }
+    
+    /**
+     * Segments à extraire: input=a.mp4,b.mp4 et ranges=10-20,15-40 (chaque plage pour chaque
+     * fichier, à la place de start/end); les segments d'un même fichier partagent une passe de décodage
+     */
+    private List<VideoSegment> extractionSegments() throws Exception {
+        List<VideoSegment> segments = new ArrayList<>();
+        for (String input : values.get("input").split(",")) {
+            VideoSegment segment = segment(new File(input.trim()));
+            String ranges = values.get("ranges");
+            if (ranges == null) {
+                segments.add(segment);
+                continue;
+            }
+            for (String value : ranges.split(",")) {
+                double[] range = parseRange("ranges", value.trim());
+                VideoSegment part = new VideoSegment(segment.getVideoFile(), segment.getDuration());
+                part.setEndTime(range[1]);
+                part.setStartTime(range[0]);
+                segments.add(part);
+            }
+        }
+        return segments;
+    }
+    
+    private StackingOptions stackingOptions(File output, int defaultWorkers) {
+        StackingOptions options = new StackingOptions();
+        options.setWorkerCount(getInt("workers", defaultWorkers));
+        
+        String method = values.getOrDefault("method", "mean").toLowerCase(Locale.ROOT);
+        switch (method) {
+            case "mean":
+                options.setMethod(StackingOptions.Method.MEAN);
+                break;
+            case "sigma":
+                options.setMethod(StackingOptions.Method.SIGMA_CLIP);
+                break;
+            case "median":
+                options.setMethod(StackingOptions.Method.MEDIAN);
+                break;
+            default:
+                throw new IllegalArgumentException("Méthode inconnue (mean, sigma, median): " + method);
+        }
+        options.setKappa(getDouble("kappa", options.getKappa()));
+        options.setMedianMemoryBudgetMb(getInt("budget", options.getMedianMemoryBudgetMb()));
+        options.setAlignmentEnabled(getBoolean("align", false));
+        options.setRotationEnabled(getBoolean("rotation", false));
+        
+        // select=10% (pourcentage) ou select=200 (nombre de frames)
+        String select = values.get("select");
+        if (select != null) {
+            options.setFrameSelectionEnabled(true);
+            if (select.endsWith("%")) {
+                options.setSelectionPercent(Double.parseDouble(select.substring(0, select.length() - 1)));
+            } else {
+                options.setSelectionCount(Integer.parseInt(select));
+            }
+            if (getBoolean("scores", false)) {
+                String path = output.getAbsolutePath();
+                int dot = path.lastIndexOf('.');
+                options.setScoresFile(new File((dot > 0 ? path.substring(0, dot) : path) + "_scores.csv"));
+            }
+        }
+        return options;
+    }
+    
+    /**
+     * every=N (une frame sur N), interval=T (secondes), count=K (réparties sur le segment)
+     * ou keyframes=true (images clés seules); thumbnail=largeur pour des vignettes,
+     * dedup=distance pour écarter les frames quasi identiques
+     */
+    private ExtractionOptions extractionOptions() {
+        ExtractionOptions options = new ExtractionOptions();
+        options.setEncoderCount(getInt("workers", options.getEncoderCount()));
+        options.setThumbnailWidth(getInt("thumbnail", 0));
+        if (values.containsKey("dedup")) {
+            options.setDeduplicationEnabled(true);
+            options.setMaxHashDistance(getInt("dedup", options.getMaxHashDistance()));
+        }
+        if (getBoolean("keyframes", false)) {
+            options.setMode(ExtractionOptions.Mode.KEYFRAMES);
+        } else if (values.containsKey("every")) {
+            options.setMode(ExtractionOptions.Mode.EVERY_NTH);
+            options.setEveryN(getInt("every", 1));
+        } else if (values.containsKey("interval")) {
+            options.setMode(ExtractionOptions.Mode.INTERVAL);
+            options.setIntervalSeconds(getDouble("interval", 1.0));
+        } else if (values.containsKey("count")) {
+            options.setMode(ExtractionOptions.Mode.COUNT);
+            options.setTotalCount(getInt("count", 1));
+        }
+        return options;
+    }
+    
+    private void require(String key) {
+        if (!values.containsKey(key)) {
+            throw new IllegalArgumentException("Paramètre manquant: " + key + " (" + description + ")");
+        }
+    }
+    
+    private double getDouble(String key, double defaultValue) {
+        return values.containsKey(key) ? Double.parseDouble(values.get(key)) : defaultValue;
+    }
+    
+    private int getInt(String key, int defaultValue) {
+        return values.containsKey(key) ? Integer.parseInt(values.get(key)) : defaultValue;
+    }
+    
+    private boolean getBoolean(String key, boolean defaultValue) {
+        return values.containsKey(key) ? Boolean.parseBoolean(values.get(key)) : defaultValue;
+    }
+    
+    /**
+     * Plage "début-fin" en secondes, null si absente
+     */
+    private double[] range(String key) {
+        String value = values.get(key);
+        return value == null ? null : parseRange(key, value);
+    }
+    
+    private static double[] parseRange(String key, String value) {
+        int dash = value.indexOf('-', 1);
+        if (dash < 0) {
+            throw new IllegalArgumentException("Plage invalide (début-fin attendu): " + key + "=" + value);
+        }
+        return new double[]{Double.parseDouble(value.substring(0, dash)),
+                            Double.parseDouble(value.substring(dash + 1))};
+    }
+    
+    private static String extension(File file, String defaultValue) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : defaultValue;
+    }
+    
+    /**
+     * Découpe sur les espaces, en respectant les guillemets
+     */
+    private static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean pending = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch == '"') {
+                quoted = !quoted;
+                pending = true;
+            } else if (Character.isWhitespace(ch) && !quoted) {
+                if (pending) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    pending = false;
+                }
+            } else {
+                current.append(ch);
+                pending = true;
+            }
+        }
+        if (pending) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,186 @@
+package fr.videoeditor.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Point d'entrée en ligne de commande, sans interface graphique:
+ * exécute des traitements (stack, extract, export, export-avi, repair)
+ * avec un nombre borné de jobs simultanés.
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp ... fr.videoeditor.cli.BatchRunner [-j N] jobs.txt ...
+ * java -Djava.awt.headless=true -cp ... fr.videoeditor.cli.BatchRunner [-j N] stack input=a.mp4 output=a.fits
+ * </pre>
+ *
+ * Un fichier de jobs contient une description par ligne ("-" lit l'entrée standard).
+ */
+public class BatchRunner {
+    
+    public static void main(String[] args) {
+        // Aucune initialisation AWT/Swing: indispensable sur les serveurs sans affichage
+        System.setProperty("java.awt.headless", "true");
+        
+        if (args.length > 1 && args[0].equals("bench") && args[1].equals("encode")) {
+            try {
+                EncodingBenchmark.run(Arrays.copyOfRange(args, 2, args.length));
+            } catch (Exception e) {
+                System.err.println("Erreur: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("bench") && args[1].equals("stack")) {
+            try {
+                StackingBenchmark.run(Arrays.copyOfRange(args, 2, args.length));
+            } catch (Exception e) {
+                System.err.println("Erreur: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("bench") && args[1].equals("pixels")) {
+            PixelBenchmark.run(Arrays.copyOfRange(args, 2, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bench")) {
+            AccumulationBenchmark.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
+        int parallelism = 1;
+        List<BatchJob> jobs = new ArrayList<>();
+        
+        try {
+            int i = 0;
+            while (i < args.length && args[i].startsWith("-") && !args[i].equals("-")) {
+                if ((args[i].equals("-j") || args[i].equals("--parallel")) && i + 1 < args.length) {
+                    parallelism = Math.max(1, Integer.parseInt(args[i + 1]));
+                    i += 2;
+                } else {
+                    usage("Option inconnue: " + args[i]);
+                    return;
+                }
+            }
+            
+            List<String> rest = Arrays.asList(args).subList(i, args.length);
+            if (rest.isEmpty()) {
+                usage(null);
+                return;
+            }
+            
+            if (isJobType(rest.get(0))) {
+                jobs.add(BatchJob.parse(rest));
+            } else {
+                for (String path : rest) {
+                    readJobs(path, jobs);
+                }
+            }
+        } catch (Exception e) {
+            usage(e.getMessage());
+            return;
+        }
+        
+        System.exit(run(jobs, parallelism) ? 0 : 1);
+    }
+    
+    /**
+     * Exécute les jobs sur un pool de taille fixe; chaque job reçoit une part
+     * égale des processeurs pour ses décodeurs. Retourne true si tous ont réussi.
+     */
+    public static boolean run(List<BatchJob> jobs, int parallelism) {
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / parallelism);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        List<Future<String>> results = new ArrayList<>();
+        
+        System.out.printf("%d job(s), %d en parallèle, %d décodeur(s) par job%n",
+                          jobs.size(), parallelism, workers);
+        
+        for (int i = 0; i < jobs.size(); i++) {
+            BatchJob job = jobs.get(i);
+            JobLog log = new JobLog(System.out, i + 1);
+            results.add(pool.submit(() -> {
+                log.onProgress("Début: " + job.getDescription());
+                long start = System.currentTimeMillis();
+                String message = job.run(log, workers);
+                log.onProgress(String.format("Terminé en %.1fs",
+                                             (System.currentTimeMillis() - start) / 1000.0));
+                return message;
+            }));
+        }
+        pool.shutdown();
+        
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            JobLog log = new JobLog(System.out, i + 1);
+            try {
+                log.onComplete(true, results.get(i).get());
+            } catch (Exception e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.onComplete(false, "Échec: " + cause);
+                failed++;
+            }
+        }
+        
+        System.out.printf("%d/%d job(s) réussi(s)%n", jobs.size() - failed, jobs.size());
+        return failed == 0;
+    }
+    
+    private static void readJobs(String path, List<BatchJob> jobs) throws Exception {
+        List<String> lines;
+        if (path.equals("-")) {
+            lines = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } else {
+            lines = Files.readAllLines(new File(path).toPath(), StandardCharsets.UTF_8);
+        }
+        
+        for (String line : lines) {
+            BatchJob job = BatchJob.parse(line);
+            if (job != null) {
+                jobs.add(job);
+            }
+        }
+    }
+    
+    private static boolean isJobType(String token) {
+        try {
+            BatchJob.Type.parse(token);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    private static void usage(String error) {
+        if (error != null) {
+            System.err.println("Erreur: " + error);
+        }
+        System.err.println("Usage: BatchRunner [-j N] (fichier_jobs... | - | type clé=valeur...)");
+        System.err.println("       BatchRunner bench [largeur hauteur frames]");
+        System.err.println("       BatchRunner bench encode [frames]");
+        System.err.println("       BatchRunner bench pixels [largeur hauteur frames]");
+        System.err.println("       BatchRunner bench stack fichier [début fin kappa workers]");
+        System.err.println("  types: stack, extract, export, export-avi, repair");
+        System.err.println("  communs: input=fichier[,fichier] output=fichier start=s end=s brightness=x");
+        System.err.println("  calibration: offset=s-s bias=s-s flat=s-s flatfile=fichier calibrate=true (export)");
+        System.err.println("  stack: format=png|jpg|fits method=mean|sigma|median kappa=x budget=Mo");
+        System.err.println("         align=true rotation=true select=10%|200 scores=true workers=N");
+        System.err.println("  export: workers=N chunk=s (durée des morceaux d'un segment long, 0 = aucun découpage)");
+        System.exit(2);
+    }
+}
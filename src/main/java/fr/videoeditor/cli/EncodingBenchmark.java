@@ -0,0 +1,125 @@
+package fr.videoeditor.cli;
+
+import fr.videoeditor.export.ImageEncoder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Mesure du débit de compression des frames (images/s) en PNG et JPG, en 1080p et 4K:
+ * ancien chemin (Java2DFrameConverter puis ImageIO) contre ImageEncoder
+ * (imencode d'OpenCV depuis la Mat, écriture par FileChannel), JPEG à la même qualité.
+ *
+ * <pre>
+ * BatchRunner bench encode [frames]
+ * </pre>
+ */
+public class EncodingBenchmark {
+    
+    private static final int[][] SIZES = {{1920, 1080}, {3840, 2160}};
+    
+    private static final String[] FORMATS = {"png", "jpg"};
+    
+    public static void run(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        File directory = Files.createTempDirectory("encoding-bench").toFile();
+        
+        try (OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
+             Java2DFrameConverter imageConverter = new Java2DFrameConverter()) {
+            for (int[] size : SIZES) {
+                Mat image = syntheticFrame(size[0], size[1]);
+                Frame frame = matConverter.convert(image);
+                
+                for (String format : FORMATS) {
+                    File file = new File(directory, "frame." + format);
+                    
+                    // Premier passage pour chauffer le JIT et les bibliothèques natives
+                    writeImageIO(imageConverter.convert(frame), format, file);
+                    
+                    long start = System.nanoTime();
+                    for (int i = 0; i < frames; i++) {
+                        BufferedImage buffered = imageConverter.convert(frame);
+                        writeImageIO(buffered, format, file);
+                    }
+                    double legacySeconds = (System.nanoTime() - start) / 1e9;
+                    long legacySize = file.length();
+                    
+                    double nativeSeconds;
+                    long nativeSize;
+                    try (ImageEncoder encoder = new ImageEncoder(format)) {
+                        encoder.write(image, file, null);
+                        
+                        start = System.nanoTime();
+                        for (int i = 0; i < frames; i++) {
+                            encoder.write(image, file, null);
+                        }
+                        nativeSeconds = (System.nanoTime() - start) / 1e9;
+                        nativeSize = file.length();
+                    }
+                    
+                    System.out.printf("%dx%d %s  ImageIO : %6.1f images/s (%6d Ko)%n",
+                                      size[0], size[1], format, frames / legacySeconds, legacySize / 1024);
+                    System.out.printf("%dx%d %s  OpenCV  : %6.1f images/s (%6d Ko) x%.2f%n",
+                                      size[0], size[1], format, frames / nativeSeconds, nativeSize / 1024,
+                                      legacySeconds / nativeSeconds);
+                    file.delete();
+                }
+                image.release();
+            }
+        } finally {
+            directory.delete();
+        }
+    }
+    
+    /**
+     * ImageIO avec la qualité JPEG d'ImageEncoder (0.75 par défaut sinon)
+     */
+    private static void writeImageIO(BufferedImage image, String format, File file) throws IOException {
+        if (!format.equals("jpg")) {
+            ImageIO.write(image, format, file);
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(ImageEncoder.DEFAULT_JPEG_QUALITY / 100f);
+        file.delete();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+    
+    /**
+     * Frame BGR 8 bits lisse et légèrement bruitée, proche d'une capture réelle
+     * (un bruit pur serait incompressible et fausserait la comparaison PNG)
+     */
+    private static Mat syntheticFrame(int width, int height) {
+        Mat noise = new Mat(height, width, CV_8UC3);
+        randu(noise, new Mat(1, 1, CV_64F, Scalar.all(0)), new Mat(1, 1, CV_64F, Scalar.all(256)));
+        
+        Mat image = new Mat();
+        GaussianBlur(noise, image, new Size(31, 31), 0);
+        noise.release();
+        
+        Mat grain = new Mat(height, width, CV_8UC3);
+        randu(grain, new Mat(1, 1, CV_64F, Scalar.all(0)), new Mat(1, 1, CV_64F, Scalar.all(8)));
+        add(image, grain, image);
+        grain.release();
+        return image;
+    }
+}
@@ -0,0 +1,89 @@
+package fr.videoeditor.cli;
+
+import fr.videoeditor.export.FrameExtractor;
+import fr.videoeditor.export.ImageStacker;
+import fr.videoeditor.export.VideoExporter;
+import fr.videoeditor.repair.MP4Rebuilder;
+import java.io.PrintStream;
+
+/**
+ * Journal d'un traitement: préfixe chaque message du numéro du job.
+ * Les messages d'étape sont tous affichés, les compteurs de frames au plus
+ * une fois par intervalle pour ne pas noyer la sortie quand plusieurs jobs tournent.
+ * Le dernier compteur écarté est affiché avant le message d'étape suivant, pour que
+ * l'état final (bilan d'une extraction par exemple) ne soit jamais perdu.
+ */
+class JobLog implements ImageStacker.ProgressListener, FrameExtractor.ProgressListener,
+                        VideoExporter.ProgressListener, MP4Rebuilder.ProgressCallback {
+    
+    private static final long COUNTER_INTERVAL_MS = 2000;
+    
+    private final PrintStream out;
+    private final String prefix;
+    private long lastCounterMillis;
+    private String pendingCounter;
+    
+    JobLog(PrintStream out, int jobNumber) {
+        this.out = out;
+        this.prefix = String.format("[job %d] ", jobNumber);
+    }
+    
+    @Override
+    public void onProgress(int current, int total, String message) {
+        if (current >= 0) {
+            counter(message);
+        } else {
+            onProgress(message);
+        }
+    }
+    
+    @Override
+    public void onProgress(int percent, String message) {
+        if (percent >= 0) {
+            counter(message);
+        } else {
+            onProgress(message);
+        }
+    }
+    
+    @Override
+    public void onProgress(String message) {
+        if (message.isEmpty()) return;
+        String pending;
+        synchronized (this) {
+            pending = pendingCounter;
+            pendingCounter = null;
+        }
+        synchronized (out) {
+            if (pending != null) {
+                out.println(prefix + pending);
+            }
+            out.println(prefix + message);
+        }
+    }
+    
+    @Override
+    public void onComplete(boolean success, String message) {
+        onProgress(message);
+    }
+    
+    /**
+     * Compteur appelé depuis les workers de décodage: affiché au plus tous les COUNTER_INTERVAL_MS,
+     * sinon mémorisé jusqu'au prochain message d'étape
+     */
+    private void counter(String message) {
+        if (message.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - lastCounterMillis < COUNTER_INTERVAL_MS) {
+                pendingCounter = message;
+                return;
+            }
+            lastCounterMillis = now;
+            pendingCounter = null;
+        }
+        synchronized (out) {
+            out.println(prefix + message);
+        }
+    }
+}
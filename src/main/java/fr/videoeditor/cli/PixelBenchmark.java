@@ -0,0 +1,87 @@
+package fr.videoeditor.cli;
+
+import fr.videoeditor.export.PixelKernel;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+
+/**
+ * Mesure du débit de correction des frames d'export (frames/s), dark et luminosité:
+ * ancienne chaîne (convertTo CV_32FC3, subtract, convertTo CV_8UC3, convertTo luminosité)
+ * contre PixelKernel (soustraction du dark quantifié en 8 bits puis LUT, sur place).
+ *
+ * <pre>
+ * BatchRunner bench pixels [largeur hauteur frames]
+ * </pre>
+ */
+public class PixelBenchmark {
+    
+    private static final double BRIGHTNESS = 1.5;
+    
+    public static void run(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        
+        Mat source = new Mat(height, width, CV_8UC3);
+        randu(source, new Mat(1, 1, CV_64F, Scalar.all(0)), new Mat(1, 1, CV_64F, Scalar.all(256)));
+        Mat dark = new Mat(height, width, CV_32FC3);
+        randu(dark, new Mat(1, 1, CV_64F, Scalar.all(0)), new Mat(1, 1, CV_64F, Scalar.all(30)));
+        
+        System.out.printf("Correction de %d frames %dx%d BGR 8 bits (dark, luminosité x%.1f)%n",
+                          frames, width, height, BRIGHTNESS);
+        
+        Mat legacyResult = new Mat();
+        Mat kernelResult = new Mat();
+        
+        try (PixelKernel kernel = new PixelKernel(dark, BRIGHTNESS)) {
+            // Premier passage pour chauffer le JIT et les allocateurs natifs
+            legacy(source, dark, legacyResult, Math.min(frames, 10));
+            fused(source, kernel, kernelResult, Math.min(frames, 10));
+            
+            long start = System.nanoTime();
+            legacy(source, dark, legacyResult, frames);
+            double legacySeconds = (System.nanoTime() - start) / 1e9;
+            
+            start = System.nanoTime();
+            fused(source, kernel, kernelResult, frames);
+            double kernelSeconds = (System.nanoTime() - start) / 1e9;
+            
+            double maxDifference = norm(legacyResult, kernelResult, NORM_INF, noArray());
+            
+            System.out.printf("flottant, 4 passes     : %8.1f frames/s%n", frames / legacySeconds);
+            System.out.printf("PixelKernel, 8 bits    : %8.1f frames/s (x%.2f)%n",
+                              frames / kernelSeconds, legacySeconds / kernelSeconds);
+            System.out.printf("écart max              : %.0f niveau(x)%n", maxDifference);
+        }
+        
+        legacyResult.release();
+        kernelResult.release();
+        dark.release();
+        source.release();
+    }
+    
+    /**
+     * Chaîne d'origine: la frame change de type à chaque conversion (réallocations)
+     */
+    private static void legacy(Mat source, Mat dark, Mat mat, int frames) {
+        for (int i = 0; i < frames; i++) {
+            source.copyTo(mat);
+            mat.convertTo(mat, CV_32FC3);
+            subtract(mat, dark, mat);
+            mat.convertTo(mat, CV_8UC3);
+            mat.convertTo(mat, -1, BRIGHTNESS, 0);
+        }
+    }
+    
+    /**
+     * PixelKernel sur place, Mat de travail réutilisée
+     */
+    private static void fused(Mat source, PixelKernel kernel, Mat mat, int frames) {
+        Mat calibrated = new Mat();
+        for (int i = 0; i < frames; i++) {
+            source.copyTo(mat);
+            kernel.apply(mat, null, calibrated);
+        }
+        calibrated.release();
+    }
+}
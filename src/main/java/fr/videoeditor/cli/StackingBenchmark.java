@@ -0,0 +1,62 @@
+package fr.videoeditor.cli;
+
+import fr.videoeditor.export.SegmentDecoder;
+import fr.videoeditor.export.SigmaClipStacker;
+import fr.videoeditor.export.StackAccumulator;
+import org.bytedeco.opencv.opencv_core.*;
+import java.io.File;
+
+/**
+ * Mesure complète du stacking kappa-sigma contre la moyenne sur le même segment:
+ * chaque méthode est chronométrée de bout en bout (décodage compris), la moyenne
+ * en une passe, le sigma-clipping en ses deux passes.
+ *
+ * <pre>
+ * BatchRunner bench stack fichier [début fin kappa workers]
+ * </pre>
+ */
+public class StackingBenchmark {
+    
+    public static void run(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("fichier vidéo manquant");
+        }
+        File videoFile = new File(args[0]);
+        long startUs = args.length > 1 ? (long) (Double.parseDouble(args[1]) * 1_000_000) : 0;
+        long endUs = args.length > 2 ? (long) (Double.parseDouble(args[2]) * 1_000_000) : Long.MAX_VALUE;
+        double kappa = args.length > 3 ? Double.parseDouble(args[3]) : 3.0;
+        int workers = args.length > 4 ? Integer.parseInt(args[4])
+                                      : Runtime.getRuntime().availableProcessors();
+        
+        SegmentDecoder decoder = new SegmentDecoder(videoFile, workers);
+        
+        long start = System.nanoTime();
+        StackAccumulator accumulator = StackAccumulator.reduce(
+            decoder.decode(startUs, endUs, i -> new StackAccumulator(), null));
+        Mat mean = accumulator.mean();
+        double meanSeconds = (System.nanoTime() - start) / 1e9;
+        int frames = accumulator.getCount();
+        accumulator.release();
+        
+        SigmaClipStacker sigmaClip = new SigmaClipStacker(decoder, kappa);
+        start = System.nanoTime();
+        Mat clipped = sigmaClip.stack(startUs, endUs, null, null, null);
+        double sigmaSeconds = (System.nanoTime() - start) / 1e9;
+        
+        System.out.printf("%s: %d frames, %d décodeurs%n", videoFile.getName(), frames, workers);
+        System.out.printf("moyenne               : %7.2fs (%6.1f frames/s)%n",
+                          meanSeconds, frames / meanSeconds);
+        System.out.printf("sigma-clipping k=%.1f  : %7.2fs (%6.1f frames/s) x%.2f%n",
+                          kappa, sigmaSeconds, frames / sigmaSeconds, sigmaSeconds / meanSeconds);
+        System.out.printf("  passe 1 %.2fs, passe 2 %.2fs, %.3f%% des échantillons rejetés%n",
+                          sigmaClip.getFirstPassMillis() / 1000.0, sigmaClip.getSecondPassMillis() / 1000.0,
+                          sigmaClip.getRejectedFraction() * 100);
+        
+        if (mean != null) {
+            mean.release();
+        }
+        if (clipped != null) {
+            clipped.release();
+        }
+    }
+}
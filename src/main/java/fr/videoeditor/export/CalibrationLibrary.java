@@ -0,0 +1,296 @@
+package fr.videoeditor.export;
+
+import fr.videoeditor.model.VideoSegment;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bibliothèque persistante de masters de calibration (dark, bias, flat).
+ * Chaque master est la moyenne d'une plage d'une vidéo, stockée en FITS 32 bits flottant
+ * sous ~/.video-editor/calibration/ et indexée par (empreinte du contenu du fichier,
+ * plage, résolution): relancer un stacking ou un export sur la même capture
+ * relit le master au lieu de redécoder la plage.
+ */
+public class CalibrationLibrary {
+    
+    public enum Type {
+        DARK, BIAS, FLAT
+    }
+    
+    /**
+     * Master chargé ou calculé
+     */
+    public static class Master {
+        private final Mat image;
+        private final int frameCount;
+        private final boolean fromLibrary;
+        private final long peakNativeBytes;
+        
+        Master(Mat image, int frameCount, boolean fromLibrary, long peakNativeBytes) {
+            this.image = image;
+            this.frameCount = frameCount;
+            this.fromLibrary = fromLibrary;
+            this.peakNativeBytes = peakNativeBytes;
+        }
+        
+        public Mat getImage() {
+            return image;
+        }
+        
+        public int getFrameCount() {
+            return frameCount;
+        }
+        
+        /**
+         * true si relu depuis la bibliothèque (aucun décodage)
+         */
+        public boolean isFromLibrary() {
+            return fromLibrary;
+        }
+        
+        public long getPeakNativeBytes() {
+            return peakNativeBytes;
+        }
+        
+        public void release() {
+            image.release();
+        }
+    }
+    
+    /** Taille des échantillons lus pour l'empreinte (début, milieu, fin) */
+    private static final int HASH_SAMPLE_BYTES = 1 << 20;
+    
+    private static final Map<String, String> hashCache = new ConcurrentHashMap<>();
+    
+    private final File directory;
+    
+    public CalibrationLibrary() {
+        this(new File(System.getProperty("user.home"), ".video-editor/calibration"));
+    }
+    
+    public CalibrationLibrary(File directory) {
+        this.directory = directory;
+    }
+    
+    /**
+     * Master de la plage [startUs, endUs] de videoFile: relu s'il existe, sinon
+     * calculé (moyenne en flux, décodage parallèle) puis enregistré.
+     * Retourne null si la plage ne contient aucune frame.
+     */
+    public Master load(Type type, File videoFile, long startUs, long endUs,
+                       int workerCount) throws Exception {
+        int[] resolution = resolution(videoFile);
+        File masterFile = masterFile(type, videoFile, startUs, endUs, resolution[0], resolution[1]);
+        
+        if (masterFile.isFile()) {
+            try {
+                Map<String, String> cards = new HashMap<>();
+                Mat image = FitsIO.read(masterFile, cards);
+                int frameCount = cards.containsKey("NFRAMES")
+                    ? Integer.parseInt(cards.get("NFRAMES").trim()) : 0;
+                return new Master(image, frameCount, true, 0);
+            } catch (Exception e) {
+                // Master illisible: le recalculer
+                e.printStackTrace();
+            }
+        }
+        
+        SegmentDecoder decoder = new SegmentDecoder(videoFile, workerCount);
+        StackAccumulator accumulator = StackAccumulator.reduce(
+            decoder.decode(startUs, endUs, i -> new StackAccumulator(), null));
+        
+        Mat image = accumulator.mean();
+        int frameCount = accumulator.getCount();
+        long peakNativeBytes = accumulator.getPeakNativeBytes();
+        accumulator.release();
+        if (image == null) {
+            return null;
+        }
+        
+        store(image, masterFile, type, videoFile, startUs, endUs, frameCount);
+        return new Master(image, frameCount, false, peakNativeBytes);
+    }
+    
+    /**
+     * Master dark des frames d'offset du segment (null si désactivé ou vide)
+     */
+    public Master loadDark(VideoSegment segment, int workerCount) throws Exception {
+        if (!segment.isOffsetEnabled()) {
+            return null;
+        }
+        return load(Type.DARK, segment.getVideoFile(),
+                    (long) (segment.getOffsetStart() * 1_000_000),
+                    (long) (segment.getOffsetEnd() * 1_000_000), workerCount);
+    }
+    
+    /**
+     * Flat normalisé du segment, bias soustrait si défini (null si désactivé ou vide)
+     */
+    public Mat loadFlat(VideoSegment segment, int workerCount) throws Exception {
+        if (!segment.isFlatEnabled()) {
+            return null;
+        }
+        
+        Master flat = load(Type.FLAT, segment.getFlatFile(),
+                           (long) (segment.getFlatStart() * 1_000_000),
+                           (long) (segment.getFlatEnd() * 1_000_000), workerCount);
+        if (flat == null) {
+            return null;
+        }
+        
+        Master bias = null;
+        if (segment.isBiasEnabled()) {
+            bias = load(Type.BIAS, segment.getVideoFile(),
+                        (long) (segment.getBiasStart() * 1_000_000),
+                        (long) (segment.getBiasEnd() * 1_000_000), workerCount);
+        }
+        
+        Mat normalized = normalizeFlat(flat.getImage(), bias != null ? bias.getImage() : null);
+        flat.release();
+        if (bias != null) {
+            bias.release();
+        }
+        return normalized;
+    }
+    
+    /**
+     * Moyenne de plusieurs masters pondérée par leur nombre de frames (ignore les null)
+     */
+    public static Mat combine(List<Master> masters) {
+        Mat sum = null;
+        int frames = 0;
+        for (Master master : masters) {
+            if (master == null) continue;
+            int weight = Math.max(1, master.getFrameCount());
+            if (sum == null) {
+                sum = new Mat();
+                master.getImage().convertTo(sum, CV_32F, weight, 0);
+            } else {
+                scaleAdd(master.getImage(), weight, sum, sum);
+            }
+            frames += weight;
+        }
+        if (sum != null) {
+            sum.convertTo(sum, -1, 1.0 / frames, 0);
+        }
+        return sum;
+    }
+    
+    /**
+     * Flat normalisé: (flat - bias) divisé par sa moyenne par canal,
+     * borné vers le bas pour ne jamais diviser par ~0
+     */
+    public static Mat normalizeFlat(Mat flat, Mat bias) {
+        Mat normalized = new Mat();
+        flat.convertTo(normalized, CV_32F);
+        if (bias != null) {
+            subtract(normalized, bias, normalized);
+        }
+        
+        Scalar level = mean(normalized);
+        Scalar inverse = new Scalar(inverse(level.get(0)), inverse(level.get(1)),
+                                    inverse(level.get(2)), inverse(level.get(3)));
+        multiply(normalized, new Mat(normalized.size(), normalized.type(), inverse), normalized);
+        max(normalized, new Mat(normalized.size(), normalized.type(), Scalar.all(0.01)), normalized);
+        return normalized;
+    }
+    
+    private static double inverse(double value) {
+        return value > 0 ? 1.0 / value : 1.0;
+    }
+    
+    private File masterFile(Type type, File videoFile, long startUs, long endUs,
+                            int width, int height) throws Exception {
+        String name = String.format("%s_%s_%d-%d_%dx%d.fits", type.name().toLowerCase(),
+                                    contentHash(videoFile), startUs, endUs, width, height);
+        return new File(directory, name);
+    }
+    
+    private void store(Mat image, File masterFile, Type type, File videoFile,
+                       long startUs, long endUs, int frameCount) {
+        try {
+            Files.createDirectories(directory.toPath());
+            
+            Map<String, Object> cards = new LinkedHashMap<>();
+            cards.put("CALTYPE", type.name());
+            cards.put("NFRAMES", frameCount);
+            cards.put("SRCFILE", videoFile.getName());
+            cards.put("SRCHASH", contentHash(videoFile));
+            cards.put("RNGSTART", startUs);
+            cards.put("RNGEND", endUs);
+            
+            // Écriture dans un fichier temporaire (unique: plusieurs jobs peuvent calculer
+            // le même master) puis renommage, pour ne jamais laisser un master tronqué
+            File temp = Files.createTempFile(directory.toPath(), masterFile.getName(), ".tmp").toFile();
+            FitsIO.write(image, temp, "Master " + type.name().toLowerCase() + " (video-editor)", cards);
+            Files.move(temp.toPath(), masterFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            // La bibliothèque est un cache: un échec d'écriture ne bloque pas le traitement
+            e.printStackTrace();
+        }
+    }
+    
+    private static int[] resolution(File videoFile) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        try {
+            grabber.start();
+            return new int[]{grabber.getImageWidth(), grabber.getImageHeight()};
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+        }
+    }
+    
+    /**
+     * Empreinte SHA-256 échantillonnée: taille + 1 Mo au début, au milieu et à la fin.
+     * Indépendante du nom et de l'emplacement du fichier, calculée en quelques millisecondes
+     * même pour une capture de plusieurs Go.
+     */
+    static String contentHash(File file) throws Exception {
+        String cacheKey = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        String cached = hashCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            digest.update(Long.toString(length).getBytes());
+            
+            byte[] buffer = new byte[HASH_SAMPLE_BYTES];
+            long[] offsets = {0, Math.max(0, length / 2 - HASH_SAMPLE_BYTES / 2),
+                              Math.max(0, length - HASH_SAMPLE_BYTES)};
+            for (long offset : offsets) {
+                int size = (int) Math.min(buffer.length, length - offset);
+                raf.seek(offset);
+                raf.readFully(buffer, 0, size);
+                digest.update(buffer, 0, size);
+            }
+        }
+        
+        StringBuilder hex = new StringBuilder();
+        byte[] hash = digest.digest();
+        for (int i = 0; i < 8; i++) {
+            hex.append(String.format("%02x", hash[i]));
+        }
+        
+        String result = hex.toString();
+        hashCache.put(cacheKey, result);
+        return result;
+    }
+}
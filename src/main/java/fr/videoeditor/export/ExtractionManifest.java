@@ -0,0 +1,183 @@
+package fr.videoeditor.export;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Manifeste d'une extraction (&lt;vidéo&gt;_manifest.csv): une ligne par fichier
+ * entièrement écrit, avec l'index de la frame, son timestamp, la taille et le CRC32.
+ * La première ligne décrit l'extraction; un manifeste d'une extraction différente
+ * (segment, mode, format) est ignoré. Les lignes sont écrites par les encodeurs
+ * et vidées sur disque au plus tous les FLUSH_INTERVAL_MS.
+ * À la reprise, la taille de chaque fichier est contrôlée, et le CRC32 des
+ * VERIFIED_ENTRIES dernières lignes écrites, celles qu'un arrêt brutal a pu laisser
+ * inscrites avec un fichier incomplet sur disque.
+ */
+class ExtractionManifest implements AutoCloseable {
+    
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final int VERIFIED_ENTRIES = 256;
+    
+    /**
+     * Fichier déjà extrait
+     */
+    static class Entry {
+        final int index;
+        final long timestamp;
+        final String fileName;
+        final long size;
+        final long crc;
+        
+        Entry(int index, long timestamp, String fileName, long size, long crc) {
+            this.index = index;
+            this.timestamp = timestamp;
+            this.fileName = fileName;
+            this.size = size;
+            this.crc = crc;
+        }
+        
+        String toLine() {
+            return String.format(Locale.ROOT, "%d,%d,%d,%08x,%s", index, timestamp, size, crc, fileName);
+        }
+        
+        static Entry parse(String line) {
+            // Nom de fichier en dernier: il peut contenir des virgules
+            String[] fields = line.split(",", 5);
+            if (fields.length != 5 || fields[4].isEmpty()) return null;
+            try {
+                return new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), fields[4],
+                                 Long.parseLong(fields[2]), Long.parseLong(fields[3], 16));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+    
+    private final Map<Integer, Entry> completed;
+    private final BufferedWriter writer;
+    private long lastFlushMillis = System.currentTimeMillis();
+    
+    /**
+     * Ouvre le manifeste du dossier: les entrées existantes dont le fichier est présent
+     * avec la bonne taille (et le bon CRC32 pour les dernières) sont conservées, le manifeste est réécrit (remplacement atomique)
+     * avec ces seules entrées puis complété au fil de l'extraction.
+     */
+    ExtractionManifest(File file, String description) throws IOException {
+        this.completed = load(file, description);
+        
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(temp))) {
+            out.write("# " + description);
+            out.newLine();
+            out.write("index,timestamp_us,size,crc32,file");
+            out.newLine();
+            for (Entry entry : completed.values()) {
+                out.write(entry.toLine());
+                out.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        this.writer = new BufferedWriter(new FileWriter(file, true));
+    }
+    
+    private static Map<Integer, Entry> load(File file, String description) throws IOException {
+        Map<Integer, Entry> entries = new TreeMap<>();
+        if (!file.exists()) return entries;
+        
+        File directory = file.getParentFile();
+        List<Entry> written = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String header = reader.readLine();
+            if (header == null || !header.equals("# " + description)) {
+                return entries;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Une ligne tronquée par un arrêt brutal est simplement ignorée
+                Entry entry = Entry.parse(line);
+                if (entry == null) continue;
+                
+                File image = new File(directory, entry.fileName);
+                if (image.isFile() && image.length() == entry.size) {
+                    entries.put(entry.index, entry);
+                    written.add(entry);
+                }
+            }
+        }
+        
+        // Ordre d'écriture des encodeurs: les dernières lignes sont les plus exposées
+        for (Entry entry : written.subList(Math.max(0, written.size() - VERIFIED_ENTRIES), written.size())) {
+            if (crcOf(new File(directory, entry.fileName)) != entry.crc) {
+                entries.remove(entry.index);
+            }
+        }
+        return entries;
+    }
+    
+    private static long crcOf(File image) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(image.toPath()));
+        return crc.getValue();
+    }
+    
+    int getCompletedCount() {
+        return completed.size();
+    }
+    
+    /**
+     * Entrées valides, par index croissant
+     */
+    Collection<Entry> getEntries() {
+        return completed.values();
+    }
+    
+    boolean isComplete(int index) {
+        return completed.containsKey(index);
+    }
+    
+    /**
+     * Dernière frame d'une suite complète depuis la première, point de reprise de l'extraction;
+     * null si la première frame manque
+     */
+    Entry resumePoint() {
+        Entry last = null;
+        for (int index = 0; completed.containsKey(index); index++) {
+            last = completed.get(index);
+        }
+        return last;
+    }
+    
+    /**
+     * Enregistre un fichier entièrement écrit (appelé par les encodeurs)
+     */
+    synchronized void record(int index, long timestamp, File image, long size, long crc) throws IOException {
+        writer.write(new Entry(index, timestamp, image.getName(), size, crc).toLine());
+        writer.newLine();
+        
+        long now = System.currentTimeMillis();
+        if (now - lastFlushMillis >= FLUSH_INTERVAL_MS) {
+            writer.flush();
+            lastFlushMillis = now;
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
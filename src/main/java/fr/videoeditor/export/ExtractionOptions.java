@@ -0,0 +1,190 @@
+package fr.videoeditor.export;
+
+import java.util.Locale;
+
+/**
+ * Options d'extraction de frames
+ */
+public class ExtractionOptions {
+    
+    /**
+     * Frames à extraire du segment
+     */
+    public enum Mode {
+        ALL("Toutes les frames"),
+        EVERY_NTH("Une frame sur N"),
+        INTERVAL("Une frame toutes les T secondes"),
+        COUNT("Nombre total, réparti sur le segment"),
+        KEYFRAMES("Images clés uniquement (index rapide)");
+        
+        private final String label;
+        
+        Mode(String label) {
+            this.label = label;
+        }
+        
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+    
+    private Mode mode;
+    private int everyN;
+    private double intervalSeconds;
+    private int totalCount;
+    private int encoderCount;
+    private int thumbnailWidth;
+    private boolean deduplicationEnabled;
+    private int pngCompression;
+    private int jpegQuality;
+    private int maxHashDistance;
+    
+    public ExtractionOptions() {
+        this.mode = Mode.ALL;
+        this.everyN = 10;
+        this.intervalSeconds = 1.0;
+        this.totalCount = 100;
+        this.maxHashDistance = 4;
+        this.pngCompression = ImageEncoder.DEFAULT_PNG_COMPRESSION;
+        this.jpegQuality = ImageEncoder.DEFAULT_JPEG_QUALITY;
+        this.encoderCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+    
+    /**
+     * Pas en frames du mode EVERY_NTH
+     */
+    public int getEveryN() {
+        return everyN;
+    }
+    
+    public void setEveryN(int everyN) {
+        this.everyN = Math.max(1, everyN);
+    }
+    
+    /**
+     * Intervalle en secondes du mode INTERVAL
+     */
+    public double getIntervalSeconds() {
+        return intervalSeconds;
+    }
+    
+    public void setIntervalSeconds(double intervalSeconds) {
+        this.intervalSeconds = Math.max(0.001, intervalSeconds);
+    }
+    
+    /**
+     * Nombre total de frames du mode COUNT
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+    
+    public void setTotalCount(int totalCount) {
+        this.totalCount = Math.max(1, totalCount);
+    }
+    
+    /**
+     * Threads de compression et d'écriture des images
+     */
+    public int getEncoderCount() {
+        return encoderCount;
+    }
+    
+    public void setEncoderCount(int encoderCount) {
+        this.encoderCount = Math.max(1, encoderCount);
+    }
+    
+    /**
+     * Largeur des images écrites, 0 pour la pleine résolution
+     */
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+    
+    public void setThumbnailWidth(int thumbnailWidth) {
+        this.thumbnailWidth = Math.max(0, thumbnailWidth);
+    }
+    
+    /**
+     * Écarte les frames quasi identiques à la dernière frame gardée (empreinte dHash)
+     */
+    public boolean isDeduplicationEnabled() {
+        return deduplicationEnabled;
+    }
+    
+    public void setDeduplicationEnabled(boolean deduplicationEnabled) {
+        this.deduplicationEnabled = deduplicationEnabled;
+    }
+    
+    /**
+     * Distance de Hamming maximale (bits sur 64) entre deux empreintes considérées identiques
+     */
+    public int getMaxHashDistance() {
+        return maxHashDistance;
+    }
+    
+    public void setMaxHashDistance(int maxHashDistance) {
+        this.maxHashDistance = Math.max(0, Math.min(64, maxHashDistance));
+    }
+    
+    /**
+     * Niveau de compression PNG (0 à 9, -1 pour le réglage rapide d'OpenCV)
+     */
+    public int getPngCompression() {
+        return pngCompression;
+    }
+    
+    public void setPngCompression(int pngCompression) {
+        this.pngCompression = Math.max(-1, Math.min(9, pngCompression));
+    }
+    
+    /**
+     * Qualité JPEG (0 à 100)
+     */
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+    
+    public void setJpegQuality(int jpegQuality) {
+        this.jpegQuality = Math.max(0, Math.min(100, jpegQuality));
+    }
+    
+    /**
+     * Paramètres qui déterminent les frames extraites et leur taille (manifeste de reprise)
+     */
+    String describe() {
+        return String.format(Locale.ROOT, "mode=%s n=%d t=%.6f count=%d thumbnail=%d dedup=%d",
+                             mode.name(), everyN, intervalSeconds, totalCount, thumbnailWidth,
+                             deduplicationEnabled ? maxHashDistance : -1);
+    }
+    
+    /**
+     * Écart entre deux frames extraites (µs), 0 pour toutes les frames
+     */
+    long targetStepUs(long durationUs, double frameRate) {
+        double period = 1_000_000.0 / (frameRate > 0 ? frameRate : 30);
+        switch (mode) {
+            case EVERY_NTH:
+                return everyN > 1 ? Math.round(everyN * period) : 0;
+            case INTERVAL:
+                return Math.round(intervalSeconds * 1_000_000);
+            case COUNT:
+                // Cibles réparties sur [début, fin - période]: la fin d'un fichier n'a pas de frame.
+                // totalCount - 1 intervalles, une seule frame au début si 1
+                long spanUs = Math.max(0, durationUs - Math.round(period));
+                long step = totalCount > 1 ? spanUs / (totalCount - 1) : durationUs + 1;
+                return Math.max(Math.round(period), step);
+            default:
+                return 0;
+        }
+    }
+}
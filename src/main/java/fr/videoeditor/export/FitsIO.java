@@ -0,0 +1,253 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import nom.tam.fits.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lecture et écriture d'images FITS 32 bits flottant (1 ou 3 plans)
+ */
+public class FitsIO {
+    
+    /** Taille d'un bloc FITS (en-tête et données sont complétés à un multiple) */
+    private static final int BLOCK_SIZE = 2880;
+    
+    /** Taille d'une carte d'en-tête */
+    private static final int CARD_SIZE = 80;
+    
+    /** Tampon d'écriture des données */
+    private static final int BUFFER_SIZE = 1 << 20;
+    
+    /**
+     * Écrit une image (convertie en CV_32F); cards: mots-clés supplémentaires
+     * (valeurs Integer, Long, Double ou String), ou null.
+     * Les plans sont copiés ligne par ligne depuis le buffer natif de la Mat vers
+     * un tampon big-endian écrit par FileChannel: ni tableau Java de l'image entière,
+     * ni accès JNI par pixel.
+     */
+    public static void write(Mat image, File outputFile, String comment,
+                             Map<String, Object> cards) throws Exception {
+        // Convertir Mat en float 32 bits
+        Mat floatMat = new Mat();
+        image.convertTo(floatMat, CV_32F);
+        
+        int height = floatMat.rows();
+        int width = floatMat.cols();
+        int channels = floatMat.channels();
+        
+        // Plans séparés (BGR pour une image couleur), dans l'ordre de NAXIS3
+        Mat[] planes = new Mat[channels];
+        if (channels > 1) {
+            MatVector split = new MatVector();
+            split(floatMat, split);
+            for (int c = 0; c < channels; c++) {
+                planes[c] = split.get(c);
+            }
+            split.close();
+        } else {
+            planes[0] = floatMat;
+        }
+        
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header(width, height, channels, comment, cards));
+            
+            int rowBytes = width * 4;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, rowBytes))
+                                          .order(ByteOrder.BIG_ENDIAN);
+            FloatBuffer floats = buffer.asFloatBuffer();
+            float[] row = new float[width];
+            long dataBytes = 0;
+            
+            for (Mat plane : planes) {
+                for (int y = 0; y < height; y++) {
+                    if (floats.remaining() < width) {
+                        flush(channel, buffer, floats);
+                    }
+                    // Une copie native -> Java par ligne, puis conversion big-endian en bloc
+                    new FloatPointer(plane.ptr(y)).get(row, 0, width);
+                    floats.put(row, 0, width);
+                    dataBytes += rowBytes;
+                }
+            }
+            flush(channel, buffer, floats);
+            
+            // Compléter le dernier bloc de données avec des zéros
+            int padding = (int) ((BLOCK_SIZE - dataBytes % BLOCK_SIZE) % BLOCK_SIZE);
+            if (padding > 0) {
+                writeFully(channel, ByteBuffer.allocate(padding));
+            }
+        } finally {
+            for (Mat plane : planes) {
+                plane.release();
+            }
+            floatMat.release();
+        }
+    }
+    
+    private static void flush(FileChannel channel, ByteBuffer buffer, FloatBuffer floats)
+            throws IOException {
+        buffer.limit(floats.position() * 4);
+        buffer.position(0);
+        writeFully(channel, buffer);
+        buffer.clear();
+        floats.clear();
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    /**
+     * En-tête primaire: cartes obligatoires, commentaire, mots-clés, END,
+     * complété par des espaces jusqu'à un multiple de BLOCK_SIZE
+     */
+    private static ByteBuffer header(int width, int height, int channels, String comment,
+                                     Map<String, Object> cards) {
+        StringBuilder header = new StringBuilder();
+        card(header, "SIMPLE", "T");
+        card(header, "BITPIX", "-32");
+        card(header, "NAXIS", channels > 1 ? "3" : "2");
+        card(header, "NAXIS1", Integer.toString(width));
+        card(header, "NAXIS2", Integer.toString(height));
+        if (channels > 1) {
+            card(header, "NAXIS3", Integer.toString(channels));
+        }
+        if (comment != null) {
+            pad(header.append("COMMENT ").append(ascii(comment, CARD_SIZE - 8)), CARD_SIZE);
+        }
+        if (cards != null) {
+            for (Map.Entry<String, Object> entry : cards.entrySet()) {
+                Object value = entry.getValue();
+                String key = entry.getKey().toUpperCase(Locale.ROOT);
+                if (value instanceof Integer || value instanceof Long) {
+                    card(header, key, value.toString());
+                } else if (value instanceof Double) {
+                    card(header, key, String.format(Locale.ROOT, "%.10E", (Double) value));
+                } else {
+                    // Chaîne entre apostrophes (doublées), au moins 8 caractères
+                    String text = quote(ascii(String.valueOf(value), 68));
+                    StringBuilder quoted = new StringBuilder("'").append(text);
+                    while (quoted.length() < 9) quoted.append(' ');
+                    pad(header.append(String.format("%-8.8s= ", key)).append(quoted).append('\''),
+                        CARD_SIZE);
+                }
+            }
+        }
+        pad(header.append("END"), CARD_SIZE);
+        pad(header, BLOCK_SIZE);
+        return ByteBuffer.wrap(header.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    /**
+     * Carte à valeur fixe: mot-clé sur 8 colonnes, valeur cadrée à droite en colonne 30
+     */
+    private static void card(StringBuilder header, String key, String value) {
+        header.append(String.format("%-8.8s= %20s", key, value));
+        pad(header, CARD_SIZE);
+    }
+    
+    private static void pad(StringBuilder header, int multiple) {
+        int length = header.length();
+        int target = (length + multiple - 1) / multiple * multiple;
+        if (target == 0) target = multiple;
+        while (header.length() < target) header.append(' ');
+        if (header.length() > target) header.setLength(target);
+    }
+    
+    /**
+     * Apostrophes doublées, tronqué pour tenir dans une carte sans couper une paire
+     */
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            int size = ch == '\'' ? 2 : 1;
+            if (quoted.length() + size > 68) break;
+            quoted.append(ch);
+            if (ch == '\'') quoted.append(ch);
+        }
+        return quoted.toString();
+    }
+    
+    /**
+     * Texte limité aux caractères ASCII imprimables autorisés dans un en-tête FITS
+     */
+    private static String ascii(String text, int maxLength) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < text.length() && result.length() < maxLength; i++) {
+            char ch = text.charAt(i);
+            result.append(ch >= 32 && ch < 127 ? ch : '?');
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Lit la première HDU en CV_32FC1 ou CV_32FC3; cards (si non null) reçoit
+     * les mots-clés de l'en-tête et leur valeur brute
+     */
+    public static Mat read(File inputFile, Map<String, String> cards) throws Exception {
+        try (Fits fits = new Fits(inputFile)) {
+            BasicHDU<?> hdu = fits.readHDU();
+            if (hdu == null) {
+                throw new FitsException("Aucune image dans " + inputFile.getName());
+            }
+            
+            if (cards != null) {
+                Iterator<HeaderCard> iterator = hdu.getHeader().iterator();
+                while (iterator.hasNext()) {
+                    HeaderCard card = iterator.next();
+                    if (card.getKey() != null && card.getValue() != null) {
+                        cards.put(card.getKey(), card.getValue());
+                    }
+                }
+            }
+            
+            Object kernel = hdu.getKernel();
+            if (kernel instanceof float[][][]) {
+                float[][][] planes = (float[][][]) kernel;
+                MatVector channels = new MatVector(planes.length);
+                for (int c = 0; c < planes.length; c++) {
+                    channels.put(c, toMat(planes[c]));
+                }
+                Mat image = new Mat();
+                merge(channels, image);
+                channels.close();
+                return image;
+            } else if (kernel instanceof float[][]) {
+                return toMat((float[][]) kernel);
+            }
+            throw new FitsException("Format FITS non supporté (32 bits flottant attendu): "
+                                    + inputFile.getName());
+        }
+    }
+    
+    public static Mat read(File inputFile) throws Exception {
+        return read(inputFile, null);
+    }
+    
+    private static Mat toMat(float[][] plane) {
+        int height = plane.length;
+        int width = height > 0 ? plane[0].length : 0;
+        Mat mat = new Mat(height, width, CV_32F);
+        for (int y = 0; y < height; y++) {
+            new FloatPointer(mat.ptr(y)).put(plane[y], 0, width);
+        }
+        return mat;
+    }
+}
@@ -0,0 +1,428 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Recalage des frames sur une frame de référence avant stacking.
+ * La translation (et optionnellement la rotation) est estimée par corrélation de phase (FFT)
+ * sur un plan de luminance réduit, puis la frame pleine résolution est recalée par warpAffine.
+ * L'estimation et le recalage tournent sur un pool dédié, en parallèle du décodage:
+ * les threads de décodage ne font que cloner la frame et la soumettre.
+ * Les frames dont la corrélation est trop faible ne sont pas transmises aux sinks.
+ */
+public class FrameAligner implements FrameSource, AutoCloseable {
+    
+    /** Plus grande dimension du plan d'analyse */
+    private static final int ANALYSIS_SIZE = 512;
+    
+    /** Réponse de corrélation en dessous de laquelle la frame est écartée */
+    private static final double MIN_RESPONSE = 0.05;
+    
+    private final FrameSource decoder;
+    private final Mat masterDark;
+    private final Mat masterFlat;
+    private final boolean estimateRotation;
+    private final ExecutorService pool;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    
+    private final Size fullSize;
+    private final Size analysisSize;
+    private final double scaleX;
+    private final double scaleY;
+    private final int squareSide;
+    private final Mat translationWindow = new Mat();
+    private final Mat rotationWindow = new Mat();
+    private final Mat referencePlane;
+    private final Mat referencePolar;
+    
+    private int alignedFrames;
+    private int droppedFrames;
+    private double maxShift;
+    private double maxAngle;
+    private long estimationNanos;
+    
+    /**
+     * @param reference frame de référence (non modifiée)
+     * @param masterDark soustrait avant recalage (les défauts du capteur ne bougent pas), ou null
+     * @param masterFlat flat normalisé, divisé avant recalage pour la même raison, ou null
+     */
+    public FrameAligner(FrameSource decoder, Mat reference, Mat masterDark, Mat masterFlat,
+                        boolean estimateRotation, int threadCount) {
+        this.decoder = decoder;
+        this.masterDark = masterDark;
+        this.masterFlat = masterFlat;
+        this.estimateRotation = estimateRotation;
+        int threads = Math.max(1, threadCount);
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.maxInFlight = threads * 2;
+        this.inFlight = new Semaphore(maxInFlight);
+        
+        fullSize = reference.size();
+        double scale = Math.min(1.0, ANALYSIS_SIZE / (double) Math.max(reference.cols(), reference.rows()));
+        int width = Math.max(2, (int) Math.round(reference.cols() * scale) & ~1);
+        int height = Math.max(2, (int) Math.round(reference.rows() * scale) & ~1);
+        analysisSize = new Size(width, height);
+        scaleX = width / (double) reference.cols();
+        scaleY = height / (double) reference.rows();
+        squareSide = Math.min(width, height);
+        
+        createHanningWindow(translationWindow, analysisSize, CV_32F);
+        createHanningWindow(rotationWindow, new Size(squareSide, squareSide), CV_32F);
+        
+        Mat corrected = calibrate(reference);
+        referencePlane = analysisPlane(corrected);
+        referencePolar = estimateRotation ? logPolarSpectrum(referencePlane) : null;
+        if (corrected != reference) {
+            corrected.release();
+        }
+    }
+    
+    /**
+     * Première frame décodée à partir de startUs, pour servir de référence
+     */
+    public static Mat grabReference(File videoFile, long startUs) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
+        
+        try {
+            grabber.start();
+            grabber.setTimestamp(startUs);
+            
+            Frame frame;
+            while ((frame = grabber.grabImage()) != null) {
+                if (grabber.getTimestamp() < startUs) continue;
+                Mat mat = matConverter.convert(frame);
+                if (mat != null) {
+                    return mat.clone();
+                }
+            }
+            return null;
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+            matConverter.close();
+        }
+    }
+    
+    /**
+     * Décode la plage via la source et livre aux sinks les frames recalées
+     * (dark soustrait et flat divisé si fournis). Chaque sink reçoit ses frames une à la fois,
+     * mais pas forcément dans l'ordre ni depuis le même thread.
+     */
+    @Override
+    public <S extends SegmentDecoder.FrameSink> List<S> decode(long startUs, long endUs,
+                                                               IntFunction<S> sinkFactory,
+                                                               SegmentDecoder.ProgressCallback progress) throws Exception {
+        List<AlignedSink<S>> aligned = decoder.decode(startUs, endUs,
+            i -> new AlignedSink<>(sinkFactory.apply(i)), progress);
+        
+        // Attendre les frames encore dans le pool
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        rethrowFailure();
+        
+        List<S> sinks = new ArrayList<>();
+        for (AlignedSink<S> sink : aligned) {
+            sinks.add(sink.target);
+        }
+        return sinks;
+    }
+    
+    /**
+     * Transformation 2x3 (convention warpAffine) ramenant la frame sur la référence,
+     * ou null si la corrélation est trop faible pour s'y fier
+     */
+    double[] estimate(Mat frame) {
+        long start = System.nanoTime();
+        Mat plane = analysisPlane(frame);
+        
+        double angle = 0;
+        Mat derotated = plane;
+        if (estimateRotation) {
+            // Le module du spectre est invariant par translation: en log-polaire,
+            // une rotation devient un décalage selon l'axe des angles
+            Mat polar = logPolarSpectrum(plane);
+            Point2d angularShift = phaseCorrelate(referencePolar, polar);
+            angle = -angularShift.y() * 360.0 / polar.rows();
+            polar.release();
+            
+            derotated = new Mat();
+            warp(plane, derotated, rotation(analysisSize.width() / 2.0, analysisSize.height() / 2.0, -angle),
+                 analysisSize);
+        }
+        
+        double[] response = new double[1];
+        Point2d shift = phaseCorrelate(referencePlane, derotated, translationWindow, response);
+        double dx = shift.x() / scaleX;
+        double dy = shift.y() / scaleY;
+        
+        // Rotation autour du centre puis translation inverse du décalage mesuré
+        double[] transform = rotation(fullSize.width() / 2.0, fullSize.height() / 2.0, -angle);
+        transform[2] -= dx;
+        transform[5] -= dy;
+        
+        if (derotated != plane) {
+            derotated.release();
+        }
+        plane.release();
+        
+        boolean reliable = record(Math.hypot(dx, dy), angle, response[0], System.nanoTime() - start);
+        return reliable ? transform : null;
+    }
+    
+    /**
+     * Frame recalée, ou null si elle est écartée
+     */
+    private Mat align(Mat frame) {
+        Mat corrected = calibrate(frame);
+        double[] transform = estimate(corrected);
+        
+        Mat aligned = null;
+        if (transform != null) {
+            aligned = new Mat();
+            warp(corrected, aligned, transform, fullSize);
+        }
+        if (corrected != frame) {
+            corrected.release();
+        }
+        return aligned;
+    }
+    
+    private Mat calibrate(Mat frame) {
+        if (masterDark == null && masterFlat == null) {
+            return frame;
+        }
+        Mat corrected = new Mat();
+        frame.convertTo(corrected, CV_32F);
+        if (masterDark != null) {
+            subtract(corrected, masterDark, corrected);
+        }
+        if (masterFlat != null) {
+            divide(corrected, masterFlat, corrected);
+        }
+        return corrected;
+    }
+    
+    /**
+     * Luminance réduite en CV_32F
+     */
+    private Mat analysisPlane(Mat frame) {
+        Mat grey = frame;
+        if (frame.channels() == 3) {
+            grey = new Mat();
+            cvtColor(frame, grey, COLOR_BGR2GRAY);
+        }
+        
+        Mat small = new Mat();
+        resize(grey, small, analysisSize, 0, 0, INTER_AREA);
+        small.convertTo(small, CV_32F);
+        
+        if (grey != frame) {
+            grey.release();
+        }
+        return small;
+    }
+    
+    /**
+     * log(1 + |FFT|) du carré central, centré puis converti en log-polaire
+     */
+    private Mat logPolarSpectrum(Mat plane) {
+        int x = (plane.cols() - squareSide) / 2;
+        int y = (plane.rows() - squareSide) / 2;
+        Mat square = new Mat(plane, new Rect(x, y, squareSide, squareSide));
+        
+        Mat windowed = new Mat();
+        multiply(square, rotationWindow, windowed);
+        
+        Mat complex = new Mat();
+        dft(windowed, complex, DFT_COMPLEX_OUTPUT, 0);
+        MatVector parts = new MatVector();
+        split(complex, parts);
+        
+        Mat spectrum = new Mat();
+        magnitude(parts.get(0), parts.get(1), spectrum);
+        spectrum.convertTo(spectrum, CV_32F, 1, 1);
+        log(spectrum, spectrum);
+        swapQuadrants(spectrum);
+        
+        Mat polar = new Mat();
+        float center = squareSide / 2f;
+        warpPolar(spectrum, polar, new Size(squareSide, squareSide), new Point2f(center, center),
+                  center, INTER_LINEAR | WARP_POLAR_LOG);
+        
+        windowed.release();
+        complex.release();
+        parts.close();
+        spectrum.release();
+        return polar;
+    }
+    
+    /**
+     * Place la fréquence nulle au centre du spectre (dimensions paires)
+     */
+    private static void swapQuadrants(Mat spectrum) {
+        int cx = spectrum.cols() / 2;
+        int cy = spectrum.rows() / 2;
+        Mat q0 = new Mat(spectrum, new Rect(0, 0, cx, cy));
+        Mat q1 = new Mat(spectrum, new Rect(cx, 0, cx, cy));
+        Mat q2 = new Mat(spectrum, new Rect(0, cy, cx, cy));
+        Mat q3 = new Mat(spectrum, new Rect(cx, cy, cx, cy));
+        
+        Mat tmp = new Mat();
+        q0.copyTo(tmp);
+        q3.copyTo(q0);
+        tmp.copyTo(q3);
+        q1.copyTo(tmp);
+        q2.copyTo(q1);
+        tmp.copyTo(q2);
+        tmp.release();
+    }
+    
+    /**
+     * Matrice de rotation autour de (cx, cy), même convention que getRotationMatrix2D
+     * (angle en degrés, positif dans le sens anti-horaire)
+     */
+    static double[] rotation(double cx, double cy, double angle) {
+        double radians = Math.toRadians(angle);
+        double alpha = Math.cos(radians);
+        double beta = Math.sin(radians);
+        return new double[]{
+            alpha, beta, (1 - alpha) * cx - beta * cy,
+            -beta, alpha, beta * cx + (1 - alpha) * cy
+        };
+    }
+    
+    private static void warp(Mat src, Mat dst, double[] transform, Size size) {
+        DoublePointer data = new DoublePointer(transform);
+        Mat matrix = new Mat(2, 3, CV_64F, data);
+        warpAffine(src, dst, matrix, size, INTER_LINEAR, BORDER_REPLICATE, new Scalar());
+        matrix.release();
+        data.close();
+    }
+    
+    /**
+     * Comptabilise une estimation; false si la frame est écartée
+     * (son décalage, sans signification, n'entre pas dans les maxima)
+     */
+    private synchronized boolean record(double shift, double angle, double response, long nanos) {
+        alignedFrames++;
+        estimationNanos += nanos;
+        if (response < MIN_RESPONSE) {
+            droppedFrames++;
+            return false;
+        }
+        maxShift = Math.max(maxShift, shift);
+        maxAngle = Math.max(maxAngle, Math.abs(angle));
+        return true;
+    }
+    
+    private void rethrowFailure() throws Exception {
+        Throwable error = failure.get();
+        if (error == null) return;
+        if (error instanceof Exception) throw (Exception) error;
+        throw new RuntimeException(error);
+    }
+    
+    public synchronized int getAlignedFrames() {
+        return alignedFrames;
+    }
+    
+    /**
+     * Frames écartées du stacking, leur corrélation étant trop faible
+     * (nuages, flou, champ différent)
+     */
+    public synchronized int getDroppedFrames() {
+        return droppedFrames;
+    }
+    
+    /**
+     * Plus grand décalage corrigé, en pixels pleine résolution
+     */
+    public synchronized double getMaxShift() {
+        return maxShift;
+    }
+    
+    public synchronized double getMaxAngle() {
+        return maxAngle;
+    }
+    
+    /**
+     * Temps d'estimation cumulé sur tous les threads du pool
+     */
+    public synchronized long getEstimationMillis() {
+        return estimationNanos / 1_000_000;
+    }
+    
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        translationWindow.release();
+        rotationWindow.release();
+        referencePlane.release();
+        if (referencePolar != null) {
+            referencePolar.release();
+        }
+    }
+    
+    /**
+     * Sink d'un worker de décodage: clone la frame et la confie au pool,
+     * qui la recale puis la transmet au sink cible
+     */
+    private class AlignedSink<S extends SegmentDecoder.FrameSink> implements SegmentDecoder.FrameSink {
+        private final S target;
+        
+        AlignedSink(S target) {
+            this.target = target;
+        }
+        
+        @Override
+        public void accept(Mat frame, long timestamp) throws Exception {
+            rethrowFailure();
+            
+            // Borne le nombre de frames clonées en attente
+            inFlight.acquire();
+            Mat copy;
+            try {
+                copy = frame.clone();
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+            
+            pool.execute(() -> {
+                try {
+                    Mat aligned = align(copy);
+                    if (aligned != null) {
+                        synchronized (this) {
+                            target.accept(aligned, timestamp);
+                        }
+                        aligned.release();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    copy.release();
+                    inFlight.release();
+                }
+            });
+        }
+    }
+}
@@ -1,13 +1,30 @@
 package fr.videoeditor.export;
 
 import fr.videoeditor.model.VideoSegment;
+import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameConverter;
-import javax.imageio.ImageIO;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
 import javax.swing.*;
-import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 /**
  * Classe pour extraire et sauvegarder les frames d'un segment vidéo
@@ -19,115 +36,76 @@ public class FrameExtractor {
         void onComplete(boolean success, String message);
     }
     
-    public static void extractFrames(VideoSegment segment, File outputDir, 
+    /**
+     * Fenêtre de mesure de l'intervalle entre keyframes de la source: un seek décode au pire
+     * depuis la keyframe précédente, il devient plus rapide que le décodage continu dès que
+     * l'écart entre deux cibles dépasse cet intervalle
+     */
+    private static final long KEYFRAME_WINDOW_US = 60_000_000;
+    
+    /**
+     * Lance l'extraction dans un SwingWorker; la progression et le résultat
+     * sont transmis au listener sur l'EDT
+     */
+    public static void extractFrames(VideoSegment segment, File outputDir,
                                      String format, ProgressListener listener) {
-        SwingWorker<Boolean, String> worker = new SwingWorker<>() {
+        extractFrames(segment, outputDir, format, new ExtractionOptions(), listener);
+    }
+    
+    /**
+     * Extraction dans un SwingWorker, en ne gardant que les frames choisies par les options
+     */
+    public static void extractFrames(VideoSegment segment, File outputDir, String format,
+                                     ExtractionOptions options, ProgressListener listener) {
+        runInWorker(edtListener -> extract(segment, outputDir, format, options, edtListener),
+                    outputDir, listener);
+    }
+    
+    /**
+     * Extraction de plusieurs segments dans un SwingWorker (voir extractAll)
+     */
+    public static void extractFrames(List<VideoSegment> segments, File outputDir, String format,
+                                     ExtractionOptions options, ProgressListener listener) {
+        runInWorker(edtListener -> extractAll(segments, outputDir, format, options, edtListener),
+                    outputDir, listener);
+    }
+    
+    private interface ExtractionTask {
+        int run(ProgressListener listener) throws Exception;
+    }
+    
+    private static void runInWorker(ExtractionTask task, File outputDir, ProgressListener listener) {
+        SwingWorker<Integer, Void> worker = new SwingWorker<>() {
             @Override
-            protected Boolean doInBackground() throws Exception {
-                FFmpegFrameGrabber grabber = null;
-                Java2DFrameConverter converter = new Java2DFrameConverter();
-                
-                try {
-                    if (!outputDir.exists()) {
-                        outputDir.mkdirs();
+            protected Integer doInBackground() throws Exception {
+                ProgressListener edtListener = listener == null ? null : new ProgressListener() {
+                    @Override
+                    public void onProgress(int current, int total, String message) {
+                        SwingUtilities.invokeLater(() -> listener.onProgress(current, total, message));
                     }
                     
-                    grabber = new FFmpegFrameGrabber(segment.getVideoFile());
-                    grabber.start();
-                    
-                    long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
-                    long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
-                    
-                    grabber.setTimestamp(startTimestamp);
-                    
-                    double frameRate = grabber.getFrameRate();
-                    double duration = segment.getSegmentDuration();
-                    int totalFrames = (int) (duration * frameRate);
-                    
-                    int frameCount = 0;
-                    String videoName = segment.getVideoFile().getName();
-                    videoName = videoName.substring(0, videoName.lastIndexOf('.'));
-                    
-                    publish(String.format("Extraction des frames de %s...", 
-                                        segment.getVideoFile().getName()));
-                    
-                    while (true) {
-                        Frame frame = grabber.grabImage();
-                        if (frame == null) break;
-                        
-                        long timestamp = grabber.getTimestamp();
-                        if (timestamp > endTimestamp) break;
-                        
-                        // Convertir en BufferedImage
-                        BufferedImage image = converter.convert(frame);
-                        if (image != null) {
-                            // Nom de fichier avec timestamp
-                            String fileName = String.format("%s_frame_%05d.%s", 
-                                                          videoName, frameCount, format);
-                            File outputFile = new File(outputDir, fileName);
-                            
-                            // Sauvegarder l'image
-                            ImageIO.write(image, format, outputFile);
-                            frameCount++;
-                            
-                            if (frameCount % 10 == 0) {
-                                final int current = frameCount;
-                                publish(String.format("Frames extraites: %d/%d", 
-                                                    current, totalFrames));
-                                if (listener != null) {
-                                    SwingUtilities.invokeLater(() -> 
-                                        listener.onProgress(current, totalFrames, 
-                                            String.format("Frames extraites: %d/%d", 
-                                                        current, totalFrames)));
-                                }
-                            }
-                        }
+                    @Override
+                    public void onComplete(boolean success, String message) {
+                        // Transmis par done()
                     }
-                    
-                    publish(String.format("Extraction terminée: %d frames sauvegardées", 
-                                        frameCount));
-                    
-                    grabber.stop();
-                    grabber.release();
-                    converter.close();
-                    
-                    return true;
-                    
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    publish("Erreur: " + e.getMessage());
-                    if (grabber != null) {
-                        try {
-                            grabber.stop();
-                            grabber.release();
-                        } catch (Exception ex) {}
-                    }
-                    converter.close();
-                    return false;
-                }
-            }
-            
-            @Override
-            protected void process(java.util.List<String> chunks) {
-                // Messages déjà gérés dans doInBackground
+                };
+                return task.run(edtListener);
             }
             
             @Override
             protected void done() {
                 try {
-                    boolean success = get();
+                    get();
                     if (listener != null) {
-                        if (success) {
-                            listener.onComplete(true, 
-                                "Frames extraites avec succès dans:\n" + 
-                                outputDir.getAbsolutePath());
-                        } else {
-                            listener.onComplete(false, "Échec de l'extraction");
-                        }
+                        listener.onComplete(true,
+                            "Frames extraites avec succès dans:\n" +
+                            outputDir.getAbsolutePath());
                     }
                 } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
                     if (listener != null) {
-                        listener.onComplete(false, "Erreur: " + e.getMessage());
+                        listener.onComplete(false, "Échec de l'extraction: " + cause.getMessage());
                     }
                 }
             }
@@ -135,4 +113,621 @@ public class FrameExtractor {
         
         worker.execute();
     }
+    
+    /**
+     * Extraction synchrone, sans Swing: utilisable hors de l'interface (ligne de commande).
+     * listener.onProgress est appelé depuis le thread appelant, onComplete n'est pas appelé.
+     * Retourne le nombre de frames sauvegardées.
+     */
+    public static int extract(VideoSegment segment, File outputDir,
+                              String format, ProgressListener listener) throws Exception {
+        return extract(segment, outputDir, format, new ExtractionOptions(), listener);
+    }
+    
+    /**
+     * Extraction en pipeline: le thread appelant décode et dépose une copie de chaque frame
+     * retenue dans une file bornée, options.getEncoderCount() threads compressent et écrivent
+     * les fichiers en parallèle. La file pleine bloque le décodeur: la mémoire reste
+     * bornée à environ 3 x encoderCount frames.
+     * <p>
+     * En mode décimé, les frames intermédiaires sont décodées sans conversion de l'image
+     * et les écarts entre deux cibles supérieurs à l'intervalle entre keyframes de la source
+     * sont franchis par un seek.
+     * En mode KEYFRAMES, seules les images clés sont décodées; leur timestamp figure dans
+     * le nom des fichiers et dans l'index &lt;vidéo&gt;_keyframes.csv.
+     * <p>
+     * Chaque fichier écrit est inscrit dans le manifeste &lt;vidéo&gt;_manifest.csv: une nouvelle
+     * extraction identique dans le même dossier reprend par un seek après la dernière frame
+     * d'une suite complète et saute les fichiers déjà présents.
+     * <p>
+     * Avec le dédoublonnage, une empreinte dHash de chaque frame retenue est comparée à celle
+     * de la dernière frame gardée; les frames trop proches (distance de Hamming) ne sont pas écrites.
+     * <p>
+     * Au format "npy", les frames sont écrites brutes (RGB 8 bits) dans un seul cube
+     * &lt;vidéo&gt;.npy, avec l'index &lt;vidéo&gt;_index.csv des timestamps et offsets.
+     * Retourne le nombre de frames présentes dans le dossier (écrites ou déjà extraites).
+     */
+    public static int extract(VideoSegment segment, File outputDir, String format,
+                              ExtractionOptions options, ProgressListener listener) throws Exception {
+        List<Target> targets = new ArrayList<>();
+        targets.add(new Target(segment, outputDir, format, options));
+        return run(targets, format, options, listener);
+    }
+    
+    /**
+     * Extraction de plusieurs segments: chaque segment est écrit dans son propre sous-dossier
+     * de outputDir (&lt;vidéo&gt;_&lt;début&gt;-&lt;fin&gt;). Les segments d'un même fichier sont
+     * extraits en une seule passe de décodage: chaque frame décodée est transmise à tous les
+     * segments qui la contiennent, les plages qui se chevauchent ne sont donc décodées qu'une fois.
+     * Retourne le nombre total de frames présentes dans les dossiers.
+     */
+    public static int extractAll(List<VideoSegment> segments, File outputDir, String format,
+                                 ExtractionOptions options, ProgressListener listener) throws Exception {
+        List<Target> targets = new ArrayList<>();
+        for (VideoSegment segment : segments) {
+            String folder = String.format(Locale.ROOT, "%s_%.2f-%.2f", baseName(segment.getVideoFile()),
+                                          segment.getStartTime(), segment.getEndTime());
+            targets.add(new Target(segment, new File(outputDir, folder), format, options));
+        }
+        return run(targets, format, options, listener);
+    }
+    
+    private static int run(List<Target> targets, String format, ExtractionOptions options,
+                           ProgressListener listener) throws Exception {
+        boolean cube = "npy".equalsIgnoreCase(format);
+        int encoders = options.getEncoderCount();
+        BlockingQueue<EncodeTask> queue = new ArrayBlockingQueue<>(encoders * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(encoders);
+        List<Future<?>> workers = new ArrayList<>();
+        
+        // Regroupement par fichier source: un seul grabber et une seule passe par fichier
+        Map<File, List<Target>> sources = new LinkedHashMap<>();
+        for (Target target : targets) {
+            sources.computeIfAbsent(target.segment.getVideoFile(), file -> new ArrayList<>()).add(target);
+        }
+        
+        try {
+            for (int i = 0; i < (cube ? 0 : encoders); i++) {
+                workers.add(pool.submit(() -> {
+                    encode(queue, format, options);
+                    return null;
+                }));
+            }
+            
+            for (Map.Entry<File, List<Target>> source : sources.entrySet()) {
+                decode(source.getKey(), source.getValue(), options, cube, encoders,
+                       queue, workers, listener);
+            }
+            
+            // Une pilule par encodeur, puis attente de la fin des écritures
+            for (int i = 0; i < workers.size(); i++) {
+                put(queue, EncodeTask.END, workers);
+            }
+            for (Future<?> worker : workers) {
+                waitFor(worker);
+            }
+            
+            int total = 0;
+            int written = 0;
+            int skipped = 0;
+            int duplicates = 0;
+            long hashNanos = 0;
+            for (Target target : targets) {
+                total += target.totalUnits();
+                written += target.written.get();
+                skipped += target.skipped;
+                duplicates += target.duplicates;
+                hashNanos += target.hashNanos;
+            }
+            
+            if (listener != null) {
+                String message = String.format("Extraction terminée: %d frames sauvegardées (%d déjà présentes)",
+                                               written, skipped);
+                if (options.isDeduplicationEnabled()) {
+                    message += String.format(", %d doublons écartés (empreintes: %d ms)",
+                                             duplicates, hashNanos / 1_000_000);
+                }
+                boolean keyframes = options.getMode() == ExtractionOptions.Mode.KEYFRAMES;
+                listener.onProgress(keyframes ? total : written + skipped, total, message);
+            }
+            
+            return written + skipped;
+        
+        } finally {
+            pool.shutdownNow();
+            for (EncodeTask task : queue) {
+                task.release();
+            }
+            for (Target target : targets) {
+                target.close();
+            }
+        }
+    }
+    
+    /**
+     * Passe de décodage d'un fichier source pour tous ses segments: on saute (seek) ou on
+     * décode sans conversion jusqu'au prochain timestamp utile à l'un des segments
+     */
+    private static void decode(File videoFile, List<Target> targets, ExtractionOptions options,
+                               boolean cube, int encoders, BlockingQueue<EncodeTask> queue,
+                               List<Future<?>> workers, ProgressListener listener) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        
+        try {
+            if (cube) {
+                // Ordre des canaux attendu par les outils Python
+                grabber.setPixelFormat(avutil.AV_PIX_FMT_RGB24);
+            }
+            if (options.getMode() == ExtractionOptions.Mode.KEYFRAMES) {
+                // Le décodeur ignore tout ce qui n'est pas une image clé (I/IDR)
+                grabber.setVideoOption("skip_frame", "nokey");
+            }
+            grabber.start();
+            
+            // Vignettes: la réduction est faite par la conversion de format de FFmpeg
+            int thumbnailWidth = options.getThumbnailWidth();
+            int sourceWidth = grabber.getImageWidth();
+            if (thumbnailWidth > 0 && thumbnailWidth < sourceWidth) {
+                grabber.setImageHeight(Math.max(1, (int) Math.round(
+                    grabber.getImageHeight() * (double) thumbnailWidth / sourceWidth)));
+                grabber.setImageWidth(thumbnailWidth);
+            }
+            
+            // Tolérance d'une demi-période pour comparer un timestamp à une cible
+            double frameRate = grabber.getFrameRate();
+            long tolerance = frameRate > 0 ? (long) (500_000 / frameRate) : 1_000;
+            long period = 2 * tolerance;
+            
+            Progress progress = new Progress(listener);
+            for (Target target : targets) {
+                target.open(frameRate, tolerance);
+                progress.add(target);
+                if (target.resumeTimestamp >= 0) {
+                    progress.message(String.format("Reprise de l'extraction: %d frames déjà présentes",
+                                                   target.manifest.getCompletedCount()));
+                }
+            }
+            progress.message(targets.size() == 1
+                ? String.format("Extraction des frames de %s (%d encodeurs)...", videoFile.getName(), encoders)
+                : String.format("Extraction des frames de %s: %d segments en une passe (%d encodeurs)...",
+                                videoFile.getName(), targets.size(), encoders));
+            
+            long next = nextTimestamp(targets);
+            if (next == Long.MAX_VALUE) return;
+            long seekGap = options.getMode() == ExtractionOptions.Mode.KEYFRAMES ? Long.MAX_VALUE
+                : Math.max(2 * period, KeyframeIndex.meanInterval(videoFile, next, KEYFRAME_WINDOW_US));
+            grabber.setTimestamp(next);
+            boolean convert = true;
+            
+            while (true) {
+                // Frame utile à aucun segment: décodée pour avancer, mais pas convertie
+                Frame frame = convert ? grabber.grabImage() : grabber.grabFrame(false, true, false, false);
+                if (frame == null) break;
+                
+                long timestamp = grabber.getTimestamp();
+                boolean restart = false;
+                for (Target target : targets) {
+                    if (target.offer(frame, timestamp, convert, queue, workers)) {
+                        progress.frameRetained(timestamp);
+                    }
+                    restart |= target.consumeRestart();
+                }
+                
+                next = nextTimestamp(targets);
+                if (next == Long.MAX_VALUE) break;
+                
+                if (restart || next - timestamp > seekGap) {
+                    grabber.setTimestamp(next);
+                    convert = true;
+                } else {
+                    // La frame suivante n'est convertie que si elle peut être retenue
+                    convert = timestamp + period >= next - tolerance;
+                }
+            }
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+        }
+    }
+    
+    private static long nextTimestamp(List<Target> targets) {
+        long next = Long.MAX_VALUE;
+        for (Target target : targets) {
+            next = Math.min(next, target.nextTimestamp());
+        }
+        return next;
+    }
+    
+    private static String baseName(File videoFile) {
+        String name = videoFile.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+    
+    /**
+     * Progression cumulée des segments d'un fichier source, en frames (ou en ms de vidéo
+     * pour les images clés, dont le nombre est inconnu)
+     */
+    private static class Progress {
+        final List<Target> targets = new ArrayList<>();
+        final ProgressListener listener;
+        int total;
+        int retained;
+        
+        Progress(ProgressListener listener) {
+            this.listener = listener;
+        }
+        
+        void add(Target target) {
+            targets.add(target);
+            total += target.totalUnits();
+        }
+        
+        void message(String message) {
+            if (listener != null) {
+                listener.onProgress(current(), total, message);
+            }
+        }
+        
+        void frameRetained(long timestamp) {
+            retained++;
+            if (retained % 10 == 0 && listener != null) {
+                int current = current();
+                if (targets.get(0).keyframes) {
+                    listener.onProgress(current, total,
+                        String.format("Images clés extraites: %d (%.1fs)", retained, timestamp / 1_000_000.0));
+                } else {
+                    listener.onProgress(current, total,
+                        String.format("Frames extraites: %d/%d", current, total));
+                }
+            }
+        }
+        
+        private int current() {
+            int current = 0;
+            for (Target target : targets) {
+                current += target.doneUnits();
+            }
+            return current;
+        }
+    }
+    
+    /**
+     * Un segment à extraire et l'état de son extraction: grille des cibles, reprise,
+     * dédoublonnage, manifeste et fichiers de sortie
+     */
+    private static class Target {
+        final VideoSegment segment;
+        final File outputDir;
+        final String format;
+        final ExtractionOptions options;
+        final String videoName;
+        final boolean keyframes;
+        final boolean cube;
+        final long startTimestamp;
+        final long endTimestamp;
+        final int maxFrames;
+        final AtomicInteger written = new AtomicInteger();
+        
+        long step;
+        long tolerance;
+        double frameRate;
+        
+        ExtractionManifest manifest;
+        BufferedWriter index;
+        NpyCubeWriter cubeWriter;
+        
+        long target;
+        int frameCount;
+        long resumeTimestamp = -1;
+        long lastTimestamp = Long.MIN_VALUE;
+        long lastRetained;
+        boolean finished;
+        boolean restartRequested;
+        
+        int skipped;
+        int duplicates;
+        long keptHash;
+        boolean hasKeptHash;
+        long hashNanos;
+        
+        Target(VideoSegment segment, File outputDir, String format, ExtractionOptions options) {
+            this.segment = segment;
+            this.outputDir = outputDir;
+            this.format = format;
+            this.options = options;
+            this.videoName = baseName(segment.getVideoFile());
+            this.keyframes = options.getMode() == ExtractionOptions.Mode.KEYFRAMES;
+            this.cube = "npy".equalsIgnoreCase(format);
+            this.startTimestamp = (long) (segment.getStartTime() * 1_000_000);
+            this.endTimestamp = (long) (segment.getEndTime() * 1_000_000);
+            // Mode COUNT: l'arrondi du pas ne doit pas ajouter de frame en fin de segment
+            this.maxFrames = options.getMode() == ExtractionOptions.Mode.COUNT
+                ? options.getTotalCount() : Integer.MAX_VALUE;
+            this.target = startTimestamp;
+            this.lastRetained = startTimestamp;
+        }
+        
+        /**
+         * Prépare le dossier, le manifeste et le point de reprise, une fois la cadence connue
+         */
+        void open(double frameRate, long tolerance) throws IOException {
+            this.frameRate = frameRate;
+            this.tolerance = tolerance;
+            this.step = options.targetStepUs(endTimestamp - startTimestamp, frameRate);
+            
+            if (!outputDir.exists()) {
+                outputDir.mkdirs();
+            }
+            
+            // Le cube est réécrit à chaque extraction: ni manifeste ni reprise
+            if (!cube) {
+                manifest = new ExtractionManifest(new File(outputDir, videoName + "_manifest.csv"),
+                    String.format(Locale.ROOT, "%s start=%d end=%d %s format=%s",
+                                  segment.getVideoFile().getName(), startTimestamp, endTimestamp,
+                                  options.describe(), format));
+                
+                // Reprise sur la dernière frame d'une suite complète, qui resynchronise les index
+                ExtractionManifest.Entry resume = manifest.resumePoint();
+                if (resume != null) {
+                    frameCount = resume.index;
+                    resumeTimestamp = resume.timestamp;
+                    // Fichiers précédant la reprise: jamais reproposés, comptés d'emblée
+                    skipped = resume.index;
+                    if (step > 0) {
+                        // Première cible de la grille d'origine atteignable par cette frame
+                        target = startTimestamp + Math.max(0,
+                            (resumeTimestamp - tolerance - startTimestamp + step - 1) / step) * step;
+                    }
+                }
+                
+                if (keyframes) {
+                    index = new BufferedWriter(new FileWriter(new File(outputDir, videoName + "_keyframes.csv")));
+                    index.write("index,timestamp_us,timestamp_s,file");
+                    index.newLine();
+                }
+            }
+        }
+        
+        /**
+         * Prochain timestamp utile à ce segment, Long.MAX_VALUE s'il est terminé
+         */
+        long nextTimestamp() {
+            if (finished) return Long.MAX_VALUE;
+            if (resumeTimestamp >= 0) return resumeTimestamp;
+            if (step > 0) return target;
+            return Math.max(startTimestamp, lastTimestamp + 1);
+        }
+        
+        /**
+         * Redemande la plage depuis nextTimestamp() (seek arrière après un échec de reprise)
+         */
+        boolean consumeRestart() {
+            boolean restart = restartRequested;
+            restartRequested = false;
+            return restart;
+        }
+        
+        /**
+         * Propose une frame décodée (convertie ou non); retourne true si elle est retenue
+         */
+        boolean offer(Frame frame, long timestamp, boolean converted, BlockingQueue<EncodeTask> queue,
+                      List<Future<?>> workers) throws Exception {
+            // Déjà vue (seek arrière demandé par un autre segment) ou hors plage
+            if (finished || timestamp <= lastTimestamp) return false;
+            lastTimestamp = timestamp;
+            if (timestamp > endTimestamp) {
+                finished = true;
+                return false;
+            }
+            if (timestamp < startTimestamp - tolerance) return false;
+            if (resumeTimestamp >= 0 && timestamp < resumeTimestamp - tolerance) return false;
+            
+            if (step > 0) {
+                // Avant la cible, ou cible atteinte sans conversion: on garde la suivante
+                if (!converted || timestamp < target - tolerance) return false;
+                while (target <= timestamp + tolerance) {
+                    target += step;
+                }
+            } else if (!converted) {
+                return false;
+            }
+            
+            if (resumeTimestamp >= 0) {
+                if (Math.abs(timestamp - resumeTimestamp) > tolerance) {
+                    // Seek imprécis: reprise depuis le début, les fichiers complets restent sautés
+                    // (et sont recomptés au passage)
+                    frameCount = 0;
+                    skipped = 0;
+                    target = startTimestamp;
+                    resumeTimestamp = -1;
+                    lastTimestamp = Long.MIN_VALUE;
+                    hasKeptHash = false;
+                    restartRequested = true;
+                    return false;
+                }
+                resumeTimestamp = -1;
+                
+                if (keyframes) {
+                    // Images clés précédant la reprise: reprises du manifeste
+                    for (ExtractionManifest.Entry entry : manifest.getEntries()) {
+                        if (entry.index >= frameCount) break;
+                        writeIndex(index, entry.index, entry.timestamp, entry.fileName);
+                    }
+                }
+            }
+            
+            if (step > 0 && target > endTimestamp) {
+                finished = true;
+            }
+            
+            // Frame quasi identique à la dernière gardée: écartée sans lui attribuer d'index
+            if (options.isDeduplicationEnabled()) {
+                long hashStart = System.nanoTime();
+                long hash = FrameHash.of(frame);
+                hashNanos += System.nanoTime() - hashStart;
+                
+                if (hasKeptHash && FrameHash.distance(hash, keptHash) <= options.getMaxHashDistance()) {
+                    duplicates++;
+                    return false;
+                }
+                keptHash = hash;
+                hasKeptHash = true;
+            }
+            
+            if (cube) {
+                // Écriture brute séquentielle: pas de compression, pas d'encodeurs
+                if (cubeWriter == null) {
+                    cubeWriter = new NpyCubeWriter(new File(outputDir, videoName + ".npy"),
+                                                   new File(outputDir, videoName + "_index.csv"),
+                                                   frame.imageWidth, frame.imageHeight, frame.imageChannels);
+                }
+                cubeWriter.append(frame, timestamp);
+                written.incrementAndGet();
+            } else {
+                // Nom de fichier avec numéro de frame, ou timestamp exact de l'image clé
+                String fileName;
+                if (keyframes) {
+                    fileName = String.format(Locale.ROOT, "%s_key_%014.6f.%s",
+                                             videoName, timestamp / 1_000_000.0, format);
+                    writeIndex(index, frameCount, timestamp, fileName);
+                } else {
+                    fileName = String.format("%s_frame_%05d.%s",
+                                             videoName, frameCount, format);
+                }
+                
+                if (manifest.isComplete(frameCount)) {
+                    skipped++;
+                } else {
+                    // Le grabber réutilise son buffer: l'encodeur reçoit une copie
+                    put(queue, new EncodeTask(frame.clone(), new File(outputDir, fileName),
+                                              this, frameCount, timestamp), workers);
+                }
+            }
+            frameCount++;
+            lastRetained = timestamp;
+            if (frameCount >= maxFrames) {
+                finished = true;
+            }
+            return true;
+        }
+        
+        int totalUnits() {
+            if (keyframes) return (int) ((endTimestamp - startTimestamp) / 1000);
+            return step > 0 ? (int) Math.min(maxFrames, (endTimestamp - startTimestamp) / step + 1)
+                            : (int) (segment.getSegmentDuration() * frameRate);
+        }
+        
+        int doneUnits() {
+            if (keyframes) return (int) ((lastRetained - startTimestamp) / 1000);
+            return skipped + duplicates + written.get();
+        }
+        
+        void close() throws IOException {
+            try {
+                if (index != null) {
+                    index.close();
+                }
+                if (manifest != null) {
+                    manifest.close();
+                }
+            } finally {
+                if (cubeWriter != null) {
+                    cubeWriter.close();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Frame copiée, fichier de destination et segment d'origine; END signale la fin à un encodeur
+     */
+    private static class EncodeTask {
+        static final EncodeTask END = new EncodeTask(null, null, null, -1, 0);
+        
+        final Frame frame;
+        final File outputFile;
+        final Target target;
+        final int index;
+        final long timestamp;
+        
+        EncodeTask(Frame frame, File outputFile, Target target, int index, long timestamp) {
+            this.frame = frame;
+            this.outputFile = outputFile;
+            this.target = target;
+            this.index = index;
+            this.timestamp = timestamp;
+        }
+        
+        void release() {
+            if (frame != null) {
+                frame.close();
+            }
+        }
+    }
+    
+    private static void writeIndex(BufferedWriter index, int frameIndex, long timestamp, 
+                                   String fileName) throws IOException {
+        index.write(String.format(Locale.ROOT, "%d,%d,%.6f,%s", 
+                                  frameIndex, timestamp, timestamp / 1_000_000.0, fileName));
+        index.newLine();
+    }
+    
+    /**
+     * Boucle d'un encodeur: compression par OpenCV et écriture, jusqu'à END.
+     * Taille et CRC32 sont calculés sur l'image compressée, puis le fichier est inscrit au manifeste.
+     */
+    private static void encode(BlockingQueue<EncodeTask> queue, String format,
+                               ExtractionOptions options) throws Exception {
+        try (OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+             ImageEncoder encoder = new ImageEncoder(format, options.getPngCompression(), 
+                                                     options.getJpegQuality())) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                EncodeTask task = queue.take();
+                if (task == EncodeTask.END) return;
+                
+                try {
+                    // La Mat partage le buffer de la frame: aucune copie avant la compression
+                    Mat image = converter.convert(task.frame);
+                    if (image != null) {
+                        crc.reset();
+                        long size = encoder.write(image, task.outputFile, crc);
+                        task.target.manifest.record(task.index, task.timestamp, task.outputFile,
+                                                    size, crc.getValue());
+                        task.target.written.incrementAndGet();
+                    }
+                } finally {
+                    task.release();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Dépose une tâche, en attendant si la file est pleine; abandonne si un encodeur a échoué
+     */
+    private static void put(BlockingQueue<EncodeTask> queue, EncodeTask task, 
+                            List<Future<?>> workers) throws Exception {
+        while (!queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<?> worker : workers) {
+                if (worker.isDone()) {
+                    task.release();
+                    waitFor(worker);
+                    throw new IOException("Un encodeur s'est arrêté prématurément");
+                }
+            }
+        }
+    }
+    
+    private static void waitFor(Future<?> worker) throws Exception {
+        try {
+            worker.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
 }
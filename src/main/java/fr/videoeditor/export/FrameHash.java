@@ -0,0 +1,82 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacv.Frame;
+import java.nio.ByteBuffer;
+
+/**
+ * Empreinte perceptuelle dHash d'une frame 8 bits: luminance moyenne sur une grille 9x8,
+ * un bit par paire de cellules voisines d'une même ligne (la gauche plus claire que la droite).
+ * Deux frames quasi identiques ont des empreintes à faible distance de Hamming.
+ * Chaque cellule est moyennée sur au plus SAMPLES x SAMPLES pixels: le coût ne dépend pas
+ * de la résolution et reste négligeable devant le décodage.
+ */
+class FrameHash {
+    
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    
+    /** Pixels échantillonnés par cellule, dans chaque direction */
+    private static final int SAMPLES = 12;
+    
+    private FrameHash() {}
+    
+    /**
+     * Empreinte 64 bits d'une frame BGR, RGB ou niveaux de gris 8 bits
+     */
+    static long of(Frame frame) {
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        int width = frame.imageWidth;
+        int height = frame.imageHeight;
+        int channels = frame.imageChannels;
+        int stride = frame.imageStride;
+        
+        double[] luma = new double[COLUMNS * ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            int y0 = row * height / ROWS;
+            int y1 = Math.max(y0 + 1, (row + 1) * height / ROWS);
+            int stepY = Math.max(1, (y1 - y0 + SAMPLES - 1) / SAMPLES);
+            
+            for (int column = 0; column < COLUMNS; column++) {
+                int x0 = column * width / COLUMNS;
+                int x1 = Math.max(x0 + 1, (column + 1) * width / COLUMNS);
+                int stepX = Math.max(1, (x1 - x0 + SAMPLES - 1) / SAMPLES);
+                
+                long sum = 0;
+                int count = 0;
+                for (int y = y0; y < y1; y += stepY) {
+                    int rowOffset = y * stride;
+                    for (int x = x0; x < x1; x += stepX) {
+                        int offset = rowOffset + x * channels;
+                        if (channels >= 3) {
+                            // (B + 2G + R) / 4: même résultat en BGR et en RGB
+                            sum += (pixels.get(offset) & 0xFF) + 2 * (pixels.get(offset + 1) & 0xFF)
+                                 + (pixels.get(offset + 2) & 0xFF);
+                        } else {
+                            sum += 4 * (pixels.get(offset) & 0xFF);
+                        }
+                        count++;
+                    }
+                }
+                luma[row * COLUMNS + column] = sum / (4.0 * count);
+            }
+        }
+        
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                hash <<= 1;
+                if (luma[row * COLUMNS + column] > luma[row * COLUMNS + column + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+    
+    /**
+     * Nombre de bits différents entre deux empreintes (0 à 64)
+     */
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
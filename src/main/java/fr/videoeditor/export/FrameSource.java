@@ -0,0 +1,18 @@
+package fr.videoeditor.export;
+
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Source de frames d'une plage vidéo, distribuées à un sink par worker.
+ * Implémentée par SegmentDecoder (frames brutes) et FrameAligner (frames recalées).
+ */
+public interface FrameSource {
+    
+    /**
+     * Décode [startUs, endUs] et retourne les sinks partiels, à réduire par l'appelant
+     */
+    <S extends SegmentDecoder.FrameSink> List<S> decode(long startUs, long endUs,
+                                                        IntFunction<S> sinkFactory,
+                                                        SegmentDecoder.ProgressCallback progress) throws Exception;
+}
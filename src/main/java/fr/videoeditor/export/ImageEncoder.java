@@ -0,0 +1,85 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Compression PNG/JPEG directement depuis une Mat par OpenCV (libpng, libjpeg-turbo):
+ * ni BufferedImage ni copie sur le tas Java, l'image compressée reste en mémoire native
+ * jusqu'à son écriture par un FileChannel. Une instance par thread.
+ */
+public class ImageEncoder implements AutoCloseable {
+    
+    /**
+     * Sans niveau imposé, OpenCV règle libpng pour la vitesse (filtre SUB, zlib niveau 1,
+     * stratégie RLE): 3 fois plus rapide que le niveau 3 et des fichiers plus petits
+     * sur des frames de capture; un niveau 0-9 explicite désactive ce réglage
+     */
+    public static final int DEFAULT_PNG_COMPRESSION = -1;
+    
+    public static final int DEFAULT_JPEG_QUALITY = 95;
+    
+    private final String extension;
+    private final IntPointer params;
+    private final BytePointer encoded = new BytePointer();
+    
+    public ImageEncoder(String format) {
+        this(format, DEFAULT_PNG_COMPRESSION, DEFAULT_JPEG_QUALITY);
+    }
+    
+    public ImageEncoder(String format, int pngCompression, int jpegQuality) {
+        this.extension = "." + format.toLowerCase(Locale.ROOT);
+        if (extension.equals(".png")) {
+            params = pngCompression < 0 ? new IntPointer()
+                                        : new IntPointer(IMWRITE_PNG_COMPRESSION, Math.min(9, pngCompression));
+        } else if (extension.equals(".jpg") || extension.equals(".jpeg")) {
+            params = new IntPointer(IMWRITE_JPEG_QUALITY, Math.max(0, Math.min(100, jpegQuality)));
+        } else {
+            params = new IntPointer();
+        }
+    }
+    
+    /**
+     * Compresse une image 8 bits (BGR ou niveaux de gris); le tampon retourné pointe
+     * sur la mémoire native de l'encodeur et reste valide jusqu'à l'appel suivant
+     */
+    public ByteBuffer encode(Mat image) throws IOException {
+        if (!imencode(extension, image, encoded, params)) {
+            throw new IOException("Format d'image non supporté: " + extension.substring(1));
+        }
+        return encoded.position(0).asByteBuffer();
+    }
+    
+    /**
+     * Compresse et écrit l'image; met à jour crc s'il est fourni et retourne la taille écrite
+     */
+    public long write(Mat image, File file, CRC32 crc) throws IOException {
+        ByteBuffer data = encode(image);
+        long size = data.remaining();
+        if (crc != null) {
+            crc.update(data.duplicate());
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        return size;
+    }
+    
+    @Override
+    public void close() {
+        encoded.close();
+        params.close();
+    }
+}
@@ -1,22 +1,12 @@
 package fr.videoeditor.export;
 
 import fr.videoeditor.model.VideoSegment;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameConverter;
-import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.bytedeco.opencv.opencv_core.*;
 import static org.bytedeco.opencv.global.opencv_core.*;
 import static org.bytedeco.opencv.global.opencv_imgproc.*;
-import nom.tam.fits.*;
-import nom.tam.util.*;
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Classe pour stacker les images d'un segment vidéo
@@ -26,335 +16,343 @@ public class ImageStacker {
     public interface ProgressListener {
         void onProgress(int current, int total, String message);
         void onComplete(boolean success, String message);
+        
+        /**
+         * Aperçu réduit du stack en cours (moyenne), appelé depuis un thread de décodage
+         * au plus toutes les quelques centaines de millisecondes
+         */
+        default void onPreview(BufferedImage preview, int frameCount) {
+        }
     }
     
     public static void stackSegment(VideoSegment segment, File outputFile, 
                                    String format, double brightnessMultiplier, ProgressListener listener) {
-        SwingWorker<Boolean, String> worker = new SwingWorker<>() {
+        stackSegment(segment, outputFile, format, brightnessMultiplier, new StackingOptions(), listener);
+    }
+    
+    /**
+     * Lance le stacking dans un SwingWorker; la progression et le résultat
+     * sont transmis au listener sur l'EDT
+     */
+    public static void stackSegment(VideoSegment segment, File outputFile, 
+                                   String format, double brightnessMultiplier,
+                                   StackingOptions options, ProgressListener listener) {
+        SwingWorker<String, Void> worker = new SwingWorker<>() {
             @Override
-            protected Boolean doInBackground() throws Exception {
-                FFmpegFrameGrabber grabber = null;
-                OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
-                Java2DFrameConverter imageConverter = new Java2DFrameConverter();
-                
-                try {
-                    grabber = new FFmpegFrameGrabber(segment.getVideoFile());
-                    grabber.start();
-                    
-                    long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
-                    long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
-                    
-                    grabber.setTimestamp(startTimestamp);
-                    
-                    List<Mat> frames = new ArrayList<>();
-                    List<Mat> offsetFrames = new ArrayList<>();
-                    int frameCount = 0;
-                    
-                    publish("Collecte des frames...");
-                    
-                    // Collecter les frames d'offset si activé
-                    if (segment.isOffsetEnabled()) {
-                        publish("Collecte des frames d'offset (dark frames)...");
-                        long offsetStartTimestamp = (long) (segment.getOffsetStart() * 1_000_000);
-                        long offsetEndTimestamp = (long) (segment.getOffsetEnd() * 1_000_000);
-                        
-                        grabber.setTimestamp(offsetStartTimestamp);
-                        
-                        while (true) {
-                            Frame frame = grabber.grabImage();
-                            if (frame == null) break;
-                            
-                            long timestamp = grabber.getTimestamp();
-                            if (timestamp > offsetEndTimestamp) break;
-                            
-                            Mat mat = matConverter.convert(frame);
-                            if (mat != null) {
-                                offsetFrames.add(mat.clone());
-                            }
-                        }
-                        
-                        publish(String.format("Frames d'offset collectées: %d", offsetFrames.size()));
-                        
-                        // Revenir au début du segment principal
-                        grabber.setTimestamp(startTimestamp);
-                    }
-                    
-                    // Collecter les frames principales
-                    while (true) {
-                        Frame frame = grabber.grabImage();
-                        if (frame == null) break;
-                        
-                        long timestamp = grabber.getTimestamp();
-                        if (timestamp > endTimestamp) break;
-                        
-                        Mat mat = matConverter.convert(frame);
-                        if (mat != null) {
-                            frames.add(mat.clone());
-                            frameCount++;
-                            
-                            if (frameCount % 10 == 0) {
-                                final int current = frameCount;
-                                publish(String.format("Frames collectées: %d", current));
-                                if (listener != null) {
-                                    SwingUtilities.invokeLater(() -> 
-                                        listener.onProgress(current, -1, 
-                                            String.format("Frames collectées: %d", current)));
-                                }
-                            }
-                        }
-                    }
-                    
-                    grabber.stop();
-                    grabber.release();
-                    
-                    if (frames.isEmpty()) {
-                        publish("Aucune frame trouvée");
-                        for (Mat mat : offsetFrames) {
-                            mat.release();
-                        }
-                        matConverter.close();
-                        imageConverter.close();
-                        return false;
-                    }
-                    
-                    publish(String.format("Stacking de %d frames...", frames.size()));
-                    
-                    // Stacker les images avec offset si disponible
-                    Mat result;
-                    if (!offsetFrames.isEmpty()) {
-                        publish("Application de la soustraction d'offset...");
-                        result = stackImagesWithOffset(frames, offsetFrames);
-                    } else {
-                        result = stackImages(frames);
+            protected String doInBackground() throws Exception {
+                ProgressListener edtListener = listener == null ? null : new ProgressListener() {
+                    @Override
+                    public void onProgress(int current, int total, String message) {
+                        SwingUtilities.invokeLater(() -> listener.onProgress(current, total, message));
                     }
                     
-                    // Nettoyer les frames
-                    for (Mat mat : frames) {
-                        mat.release();
+                    @Override
+                    public void onComplete(boolean success, String message) {
+                        // Transmis par done()
                     }
-                    frames.clear();
                     
-                    for (Mat mat : offsetFrames) {
-                        mat.release();
+                    @Override
+                    public void onPreview(BufferedImage preview, int frameCount) {
+                        // Déjà limité par StackPreview: le listener se charge de passer sur l'EDT
+                        listener.onPreview(preview, frameCount);
                     }
-                    offsetFrames.clear();
-                    
-                    // Appliquer la luminosité
-                    if (brightnessMultiplier != 1.0) {
-                        multiply(result, new Mat(result.size(), result.type(), 
-                            Scalar.all(brightnessMultiplier)), result);
-                    }
-                    
-                    // Sauvegarder selon le format
-                    publish("Sauvegarde de l'image...");
-                    if (format.equalsIgnoreCase("fits")) {
-                        saveFits(result, outputFile);
-                    } else {
-                        // Convertir en 8U pour PNG/JPG
-                        Mat output8U = new Mat();
-                        result.convertTo(output8U, CV_8U);
-                        
-                        Frame resultFrame = matConverter.convert(output8U);
-                        BufferedImage image = imageConverter.convert(resultFrame);
-                        ImageIO.write(image, format, outputFile);
-                        
-                        output8U.release();
+                };
+                return stack(segment, outputFile, format, brightnessMultiplier, options, edtListener);
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    String message = get();
+                    if (listener != null) {
+                        listener.onComplete(true, message);
                     }
-                    
-                    result.release();
-                    matConverter.close();
-                    imageConverter.close();
-                    
-                    return true;
-                    
                 } catch (Exception e) {
-                    e.printStackTrace();
-                    publish("Erreur: " + e.getMessage());
-                    if (grabber != null) {
-                        try {
-                            grabber.stop();
-                            grabber.release();
-                        } catch (Exception ex) {}
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
+                    if (listener != null) {
+                        listener.onComplete(false, "Échec du stacking: " + cause.getMessage());
                     }
-                    matConverter.close();
-                    imageConverter.close();
-                    return false;
                 }
             }
+        };
+        
+        worker.execute();
+    }
+    
+    /**
+     * Stacking synchrone, sans Swing: utilisable hors de l'interface (ligne de commande).
+     * listener.onProgress est appelé depuis le thread appelant (et les workers de décodage),
+     * onComplete n'est pas appelé. Retourne le rapport affiché en fin de traitement.
+     */
+    public static String stack(VideoSegment segment, File outputFile, 
+                               String format, double brightnessMultiplier,
+                               StackingOptions options, ProgressListener listener) throws Exception {
+        CalibrationLibrary.Master darkMaster = null;
+        StackAccumulator accumulator = null;
+        Mat masterDark = null;
+        Mat masterFlat = null;
+        Mat reference = null;
+        FrameAligner aligner = null;
+        StringBuilder report = new StringBuilder();
+        
+        try {
+            SegmentDecoder decoder = new SegmentDecoder(segment.getVideoFile(), 
+                                                        options.getWorkerCount());
             
-            private void saveFits(Mat stackedMat, File outputFile) throws Exception {
-                // Convertir Mat en float 32 bits
-                Mat floatMat = new Mat();
-                stackedMat.convertTo(floatMat, CV_32F);
-                
-                int height = floatMat.rows();
-                int width = floatMat.cols();
-                int channels = floatMat.channels();
-                
-                if (channels == 3) {
-                    // Image couleur BGR - sauvegarder 3 plans
-                    MatVector bgr = new MatVector();
-                    split(floatMat, bgr);
-                    
-                    float[][][] data = new float[3][height][width];
-                    
-                    // Extraire les données de chaque canal
-                    for (int c = 0; c < 3; c++) {
-                        Mat channel = bgr.get(c);
-                        
-                        for (int y = 0; y < height; y++) {
-                            for (int x = 0; x < width; x++) {
-                                data[c][y][x] = channel.ptr(y).getFloat(x * 4);
-                            }
-                        }
-                        channel.release();
-                    }
-                    bgr.close();
-                    
-                    // Créer le fichier FITS
-                    Fits fits = new Fits();
-                    ImageHDU hdu = (ImageHDU) Fits.makeHDU(data);
-                    
-                    // Ajouter des métadonnées
-                    Header header = hdu.getHeader();
-                    header.addValue("COMMENT", "Stacked image from video frames", "");
-                    header.addValue("BITPIX", -32, "32-bit floating point");
-                    header.addValue("NAXIS", 3, "3 axes (color)");
-                    
-                    fits.addHDU(hdu);
-                    
-                    // Sauvegarder
-                    try (BufferedDataOutputStream dos = new BufferedDataOutputStream(
-                            new FileOutputStream(outputFile))) {
-                        fits.write(dos);
-                    }
-                } else {
-                    // Image en niveaux de gris
-                    float[][] data = new float[height][width];
-                    
-                    for (int y = 0; y < height; y++) {
-                        for (int x = 0; x < width; x++) {
-                            data[y][x] = floatMat.ptr(y).getFloat(x * 4);
-                        }
-                    }
-                    
-                    // Créer le fichier FITS
-                    Fits fits = new Fits();
-                    ImageHDU hdu = (ImageHDU) Fits.makeHDU(data);
-                    
-                    // Ajouter des métadonnées
-                    Header header = hdu.getHeader();
-                    header.addValue("COMMENT", "Stacked image from video frames", "");
-                    header.addValue("BITPIX", -32, "32-bit floating point");
-                    
-                    fits.addHDU(hdu);
-                    
-                    // Sauvegarder
-                    try (BufferedDataOutputStream dos = new BufferedDataOutputStream(
-                            new FileOutputStream(outputFile))) {
-                        fits.write(dos);
-                    }
+            long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
+            long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
+            
+            status(listener, String.format("Stacking des frames en flux (%d décodeurs)...", 
+                                options.getWorkerCount()));
+            
+            // Masters de calibration: relus depuis la bibliothèque si la même
+            // plage de la même capture a déjà été traitée, calculés sinon
+            CalibrationLibrary library = new CalibrationLibrary();
+            if (segment.isOffsetEnabled()) {
+                status(listener, "Master dark (frames d'offset)...");
+                darkMaster = library.loadDark(segment, options.getWorkerCount());
+                if (darkMaster != null) {
+                    masterDark = darkMaster.getImage();
+                    status(listener, String.format(darkMaster.isFromLibrary() 
+                        ? "Master dark relu depuis la bibliothèque (%d frames)" 
+                        : "Frames d'offset accumulées: %d", darkMaster.getFrameCount()));
                 }
-                
-                floatMat.release();
             }
             
-            private Mat stackImages(List<Mat> frames) {
-                if (frames.isEmpty()) return null;
-                
-                Mat result = new Mat();
-                frames.get(0).copyTo(result);
-                result.convertTo(result, CV_32F);
+            if (segment.isFlatEnabled()) {
+                status(listener, "Master flat...");
+                masterFlat = library.loadFlat(segment, options.getWorkerCount());
+            }
+            
+            if (masterDark != null) {
+                status(listener, "Application de la soustraction d'offset...");
+            }
+            if (masterFlat != null) {
+                status(listener, "Application de la division par le flat...");
+            }
+            
+            FrameSource source = decoder;
+            long referenceTimestamp = startTimestamp;
+            
+            // Lucky imaging: passe rapide de notation, puis seules les meilleures
+            // frames sont décodées à nouveau pour le stacking
+            if (options.isFrameSelectionEnabled()) {
+                status(listener, "Passe de sélection: notation de la netteté...");
+                SharpnessSelector selector = new SharpnessSelector(decoder,
+                    options.getSelectionPercent(), options.getSelectionCount(),
+                    options.getScoresFile());
+                long[] selected = selector.select(startTimestamp, endTimestamp, 
+                                                  progress(listener, "Frames notées"));
+                source = decoder.selection(selected);
+                referenceTimestamp = selector.getBestTimestamp();
                 
-                // Moyenne des frames
-                for (int i = 1; i < frames.size(); i++) {
-                    Mat temp = new Mat();
-                    frames.get(i).convertTo(temp, CV_32F);
-                    add(result, temp, result);
-                    temp.release();
+                String selectionReport = String.format(
+                    "Sélection: %d/%d frames gardées (netteté %.1f à %.1f)",
+                    selector.getSelectedFrames(), selector.getScoredFrames(),
+                    selector.getThresholdScore(), selector.getBestScore());
+                if (options.getScoresFile() != null) {
+                    selectionReport += "\nScores exportés: " + options.getScoresFile().getAbsolutePath();
                 }
-                
-                divide(result, new Mat(result.size(), result.type(), 
-                      Scalar.all(frames.size())), result);
-                
-                return result;
+                status(listener, selectionReport);
+                appendReport(report, selectionReport);
             }
             
-            private Mat stackImagesWithOffset(List<Mat> frames, List<Mat> offsetFrames) {
-                if (frames.isEmpty()) return null;
-                
-                // Créer le master dark (moyenne des frames d'offset)
-                Mat masterDark = new Mat();
-                offsetFrames.get(0).copyTo(masterDark);
-                masterDark.convertTo(masterDark, CV_32F);
-                
-                for (int i = 1; i < offsetFrames.size(); i++) {
-                    Mat temp = new Mat();
-                    offsetFrames.get(i).convertTo(temp, CV_32F);
-                    add(masterDark, temp, masterDark);
-                    temp.release();
+            // Recalage optionnel sur la première frame (la plus nette en lucky imaging);
+            // le dark est alors soustrait avant recalage, les défauts du capteur ne bougeant pas
+            Mat stackingDark = masterDark;
+            if (options.isAlignmentEnabled()) {
+                reference = FrameAligner.grabReference(segment.getVideoFile(), referenceTimestamp);
+                if (reference != null) {
+                    status(listener, options.isRotationEnabled() 
+                        ? "Recalage des frames (translation + rotation)..." 
+                        : "Recalage des frames (translation)...");
+                    aligner = new FrameAligner(source, reference, masterDark, masterFlat,
+                                               options.isRotationEnabled(),
+                                               Runtime.getRuntime().availableProcessors());
+                    source = aligner;
+                    stackingDark = null;
                 }
+            }
+            
+            long stackingStart = System.currentTimeMillis();
+            Mat result;
+            int stackedFrames;
+            long stackingPeakBytes;
+            
+            if (options.getMethod() == StackingOptions.Method.SIGMA_CLIP) {
+                // Deux passes de décodage: statistiques puis moyenne clippée
+                SigmaClipStacker sigmaClip = new SigmaClipStacker(source, options.getKappa());
+                result = sigmaClip.stack(startTimestamp, endTimestamp, stackingDark,
+                                         progress(listener, "Passe 1/2 (statistiques) - frames"),
+                                         progress(listener, "Passe 2/2 (rejet) - frames"));
+                stackedFrames = sigmaClip.getFrameCount();
+                stackingPeakBytes = sigmaClip.getPeakNativeBytes();
                 
-                divide(masterDark, new Mat(masterDark.size(), masterDark.type(), 
-                      Scalar.all(offsetFrames.size())), masterDark);
-                
-                // Appliquer la soustraction d'offset et stacker
-                Mat result = new Mat();
-                Mat correctedFrame = new Mat();
+                if (result != null) {
+                    long totalMillis = sigmaClip.getFirstPassMillis() + sigmaClip.getSecondPassMillis();
+                    String sigmaReport = String.format(
+                        "Sigma-clipping (kappa=%.1f): %.2f%% des échantillons rejetés\n" +
+                        "Passe 1: %.1fs, passe 2: %.1fs, total: %.1fs",
+                        options.getKappa(), sigmaClip.getRejectedFraction() * 100,
+                        sigmaClip.getFirstPassMillis() / 1000.0,
+                        sigmaClip.getSecondPassMillis() / 1000.0,
+                        totalMillis / 1000.0);
+                    status(listener, sigmaReport);
+                    appendReport(report, sigmaReport);
+                }
+            } else if (options.getMethod() == StackingOptions.Method.MEDIAN) {
+                // Frames déversées dans un cube sur disque, médiane par tuiles
+                MedianStacker median = new MedianStacker(source,
+                    options.getMedianMemoryBudgetMb() * 1024L * 1024L,
+                    Runtime.getRuntime().availableProcessors());
+                result = median.stack(startTimestamp, endTimestamp, stackingDark,
+                                      progress(listener, "Écriture du cube - frames"),
+                                      progress(listener, "Médiane - tuiles"));
+                stackedFrames = median.getFrameCount();
+                stackingPeakBytes = median.getPeakNativeBytes();
                 
-                for (int i = 0; i < frames.size(); i++) {
-                    Mat frame32F = new Mat();
-                    frames.get(i).convertTo(frame32F, CV_32F);
-                    
-                    // Soustraire le master dark
-                    subtract(frame32F, masterDark, correctedFrame);
-                    
-                    if (i == 0) {
-                        correctedFrame.copyTo(result);
-                    } else {
-                        add(result, correctedFrame, result);
-                    }
-                    
-                    frame32F.release();
+                if (result != null) {
+                    String medianReport = String.format(
+                        "Médiane: cube de %.1f Mo sur disque, %d tuiles en parallèle (budget %d Mo)",
+                        median.getCubeBytes() / (1024.0 * 1024.0),
+                        median.getConcurrentTiles(), options.getMedianMemoryBudgetMb());
+                    status(listener, medianReport);
+                    appendReport(report, medianReport);
+                }
+            } else {
+                // Accumuler les frames principales au fil du décodage,
+                // une somme partielle par worker puis réduction
+                final Mat dark = stackingDark;
+                final StackPreview preview = listener != null && options.isPreviewEnabled()
+                    ? new StackPreview(listener::onPreview) : null;
+                accumulator = StackAccumulator.reduce(
+                    source.decode(startTimestamp, endTimestamp, 
+                                  i -> new StackAccumulator(dark, preview),
+                                  progress(listener, "Frames stackées")));
+                if (preview != null) {
+                    long stackingMillis = Math.max(1, System.currentTimeMillis() - stackingStart);
+                    status(listener, String.format("Aperçu progressif: %.2fs de calcul (%.1f%% du stacking)", 
+                                                   preview.getPreviewMillis() / 1000.0,
+                                                   preview.getPreviewMillis() * 100.0 / stackingMillis));
                 }
                 
-                // Moyenne
-                divide(result, new Mat(result.size(), result.type(), 
-                      Scalar.all(frames.size())), result);
+                stackedFrames = accumulator.getCount();
+                stackingPeakBytes = accumulator.getPeakNativeBytes();
+                status(listener, String.format("Moyenne de %d frames...", stackedFrames));
                 
+                result = accumulator.mean();
+                accumulator.release();
+            }
+            
+            if (aligner != null) {
+                String alignmentReport = String.format(
+                    "Recalage: décalage max %.1f px, rotation max %.2f°, %d/%d frames écartées (corrélation trop faible)\n" +
+                    "Estimation: %.1fs cumulés sur le pool pour %.1fs de stacking",
+                    aligner.getMaxShift(), aligner.getMaxAngle(),
+                    aligner.getDroppedFrames(), aligner.getAlignedFrames(),
+                    aligner.getEstimationMillis() / 1000.0,
+                    (System.currentTimeMillis() - stackingStart) / 1000.0);
+                status(listener, alignmentReport);
+                appendReport(report, alignmentReport);
+                aligner.close();
+                reference.release();
+            }
+            
+            if (masterDark != null) {
                 masterDark.release();
-                correctedFrame.release();
-                
-                return result;
             }
             
+            if (result == null) {
+                throw new Exception("Aucune frame trouvée dans le segment");
+            }
+            
+            status(listener, String.format("%d frames stackées", stackedFrames));
             
-            @Override
-            protected void process(List<String> chunks) {
-                // Messages déjà gérés dans doInBackground
+            // Division par le flat: un facteur par pixel commute avec la moyenne,
+            // le rejet et la médiane (sans recalage, où il est appliqué à chaque frame)
+            if (masterFlat != null && aligner == null) {
+                divide(result, masterFlat, result);
+            }
+            if (masterFlat != null) {
+                masterFlat.release();
             }
             
-            @Override
-            protected void done() {
-                try {
-                    boolean success = get();
-                    if (listener != null) {
-                        if (success) {
-                            listener.onComplete(true, 
-                                "Image stackée sauvegardée:\n" + 
-                                outputFile.getAbsolutePath());
-                        } else {
-                            listener.onComplete(false, "Échec du stacking");
-                        }
-                    }
-                } catch (Exception e) {
-                    if (listener != null) {
-                        listener.onComplete(false, "Erreur: " + e.getMessage());
-                    }
+            long peakNativeBytes = stackingPeakBytes;
+            if (darkMaster != null) {
+                peakNativeBytes = Math.max(peakNativeBytes, darkMaster.getPeakNativeBytes());
+            }
+            status(listener, String.format("Mémoire native de pointe: %.1f Mo", 
+                                peakNativeBytes / (1024.0 * 1024.0)));
+            
+            // Appliquer la luminosité
+            if (brightnessMultiplier != 1.0) {
+                multiply(result, new Mat(result.size(), result.type(), 
+                    Scalar.all(brightnessMultiplier)), result);
+            }
+            
+            // Sauvegarder selon le format
+            status(listener, "Sauvegarde de l'image...");
+            if (format.equalsIgnoreCase("fits")) {
+                FitsIO.write(result, outputFile, "Stacked image from video frames", null);
+            } else {
+                // Convertir en 8U pour PNG/JPG
+                Mat output8U = new Mat();
+                result.convertTo(output8U, CV_8U);
+                
+                try (ImageEncoder encoder = new ImageEncoder(format)) {
+                    encoder.write(output8U, outputFile, null);
                 }
+                
+                output8U.release();
             }
-        };
+            
+            result.release();
+            
+            return "Image stackée sauvegardée:\n" + 
+                   outputFile.getAbsolutePath() + "\n" +
+                   String.format("Mémoire native de pointe: %.1f Mo", 
+                               peakNativeBytes / (1024.0 * 1024.0)) +
+                   (report.length() == 0 ? "" : "\n" + report);
         
-        worker.execute();
+        } catch (Exception e) {
+            if (accumulator != null) {
+                accumulator.release();
+            }
+            if (masterDark != null) {
+                masterDark.release();
+            }
+            if (masterFlat != null) {
+                masterFlat.release();
+            }
+            if (aligner != null) {
+                aligner.close();
+            }
+            if (reference != null) {
+                reference.release();
+            }
+            throw e;
+        }
+    }
+    
+    private static void appendReport(StringBuilder report, String text) {
+        if (report.length() > 0) {
+            report.append('\n');
+        }
+        report.append(text);
+    }
+    
+    private static void status(ProgressListener listener, String message) {
+        if (listener != null) {
+            listener.onProgress(-1, -1, message);
+        }
+    }
+    
+    private static SegmentDecoder.ProgressCallback progress(ProgressListener listener, String label) {
+        return frameCount -> {
+            if (listener != null) {
+                listener.onProgress(frameCount, -1, String.format("%s: %d", label, frameCount));
+            }
+        };
     }
 }
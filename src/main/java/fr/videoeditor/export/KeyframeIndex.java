@@ -0,0 +1,171 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avformat.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Index des keyframes d'une vidéo.
+ * Les paquets sont lus sans décodage (grabPacket), ce qui permet de localiser
+ * les keyframes d'une plage bien plus vite qu'un décodage complet.
+ */
+public class KeyframeIndex {
+    
+    /**
+     * Retourne les timestamps (microsecondes, même base que grabber.getTimestamp())
+     * des keyframes comprises dans [startUs, endUs], triés
+     */
+    public static long[] scan(File videoFile, long startUs, long endUs) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        
+        try {
+            grabber.start();
+            
+            AVFormatContext context = grabber.getFormatContext();
+            int videoStream = findStream(context, AVMEDIA_TYPE_VIDEO);
+            if (videoStream < 0) {
+                return new long[0];
+            }
+            
+            AVRational timeBase = context.streams(videoStream).time_base();
+            
+            if (startUs > 0) {
+                av_seek_frame(context, -1, startUs, AVSEEK_FLAG_BACKWARD);
+            }
+            
+            long[] keyframes = new long[64];
+            int count = 0;
+            
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                try {
+                    if (packet.stream_index() != videoStream) continue;
+                    
+                    long timestamp = toMicros(packetTimestamp(packet), timeBase);
+                    if (timestamp == AV_NOPTS_VALUE) continue;
+                    
+                    boolean keyFrame = (packet.flags() & AV_PKT_FLAG_KEY) != 0;
+                    if (keyFrame && timestamp > endUs) break;
+                    
+                    if (keyFrame && timestamp >= startUs) {
+                        if (count == keyframes.length) {
+                            keyframes = Arrays.copyOf(keyframes, count * 2);
+                        }
+                        keyframes[count++] = timestamp;
+                    }
+                } finally {
+                    av_packet_unref(packet);
+                }
+            }
+            
+            long[] result = Arrays.copyOf(keyframes, count);
+            Arrays.sort(result);
+            return result;
+        
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+        }
+    }
+    
+    /**
+     * Intervalle moyen entre keyframes (µs) mesuré sur [startUs, startUs + windowUs];
+     * windowUs si la fenêtre en contient moins de deux
+     */
+    public static long meanInterval(File videoFile, long startUs, long windowUs) throws Exception {
+        long[] keyframes = scan(videoFile, startUs, startUs + windowUs);
+        if (keyframes.length < 2) {
+            return windowUs;
+        }
+        return (keyframes[keyframes.length - 1] - keyframes[0]) / (keyframes.length - 1);
+    }
+    
+    /**
+     * true si une keyframe de [startUs, endUs] ouvre un GOP ouvert: un paquet qui la suit
+     * dans l'ordre de décodage s'affiche avant elle (images B référençant le GOP précédent),
+     * elle ne peut donc pas servir de point de coupe
+     */
+    public static boolean hasOpenGop(File videoFile, long startUs, long endUs) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        
+        try {
+            grabber.start();
+            
+            AVFormatContext context = grabber.getFormatContext();
+            int videoStream = findStream(context, AVMEDIA_TYPE_VIDEO);
+            if (videoStream < 0) {
+                return false;
+            }
+            
+            AVRational timeBase = context.streams(videoStream).time_base();
+            
+            if (startUs > 0) {
+                av_seek_frame(context, -1, startUs, AVSEEK_FLAG_BACKWARD);
+            }
+            
+            long keyTimestamp = AV_NOPTS_VALUE;
+            
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                try {
+                    if (packet.stream_index() != videoStream) continue;
+                    
+                    long timestamp = toMicros(packetTimestamp(packet), timeBase);
+                    long dts = toMicros(packet.dts(), timeBase);
+                    if (dts != AV_NOPTS_VALUE && dts > endUs) break;
+                    if (timestamp == AV_NOPTS_VALUE) continue;
+                    
+                    if ((packet.flags() & AV_PKT_FLAG_KEY) != 0) {
+                        keyTimestamp = timestamp;
+                    } else if (keyTimestamp != AV_NOPTS_VALUE && timestamp < keyTimestamp) {
+                        return true;
+                    }
+                } finally {
+                    av_packet_unref(packet);
+                }
+            }
+            return false;
+        
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+        }
+    }
+    
+    /**
+     * Index du premier flux du type demandé (AVMEDIA_TYPE_*), -1 si absent
+     */
+    public static int findStream(AVFormatContext context, int mediaType) {
+        for (int i = 0; i < context.nb_streams(); i++) {
+            if (context.streams(i).codecpar().codec_type() == mediaType) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Timestamp de présentation d'un paquet (dts si pts absent), dans la base du flux
+     */
+    public static long packetTimestamp(AVPacket packet) {
+        return packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+    }
+    
+    /**
+     * Convertit un timestamp exprimé dans la base du flux en microsecondes
+     */
+    public static long toMicros(long timestamp, AVRational timeBase) {
+        if (timestamp == AV_NOPTS_VALUE) return AV_NOPTS_VALUE;
+        return 1_000_000L * timestamp * timeBase.num() / timeBase.den();
+    }
+}
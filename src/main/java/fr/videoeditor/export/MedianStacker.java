@@ -0,0 +1,489 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stacking médiane hors mémoire.
+ * Les frames sont déversées dans un cube sur disque mappé en mémoire, en 8 bits pour les
+ * frames décodées et en CV_32F pour les frames déjà calibrées ou recalées (résidus
+ * négatifs et fractions de niveau conservés, comme pour la moyenne et le sigma-clipping),
+ * rangé par tuiles: pour une tuile donnée, les échantillons de toutes les frames d'un bloc
+ * sont contigus. La médiane est ensuite calculée tuile par tuile, en parallèle,
+ * par quickselect sur des tableaux primitifs. Le nombre de tuiles traitées simultanément
+ * est borné par un budget mémoire, indépendamment du nombre de frames.
+ */
+public class MedianStacker {
+    
+    /** Côté des tuiles, en pixels */
+    static final int TILE_SIZE = 64;
+    
+    /** Frames par bloc du cube (un mapping par bloc, limité à 2 Go) */
+    private static final int MAX_BLOCK_FRAMES = 64;
+    
+    private final FrameSource decoder;
+    private final long memoryBudgetBytes;
+    private final int threadCount;
+    private int frameCount;
+    private long peakWorkingBytes;
+    private long cubeBytes;
+    private int concurrentTiles;
+    
+    public MedianStacker(FrameSource decoder, long memoryBudgetBytes, int threadCount) {
+        this.decoder = decoder;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.threadCount = Math.max(1, threadCount);
+    }
+    
+    /**
+     * Stacke [startUs, endUs] et retourne la médiane en CV_32F (null si aucune frame).
+     * La médiane commute avec la soustraction d'une constante par pixel: le master dark
+     * est soustrait du résultat, ce qui est exact.
+     */
+    public Mat stack(long startUs, long endUs, Mat masterDark,
+                     SegmentDecoder.ProgressCallback decodeProgress,
+                     SegmentDecoder.ProgressCallback tileProgress) throws Exception {
+        File cubeFile = File.createTempFile("median_cube_", ".bin");
+        
+        try (RandomAccessFile raf = new RandomAccessFile(cubeFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            FrameCube cube = new FrameCube(channel);
+            
+            // Vrai une fois qu'aucun worker ne peut plus accéder aux mappings
+            boolean idle = false;
+            try {
+                // Passe unique de décodage: chaque worker écrit ses frames dans le cube
+                for (CubeWriter writer : decoder.decode(startUs, endUs,
+                                                        i -> new CubeWriter(cube), decodeProgress)) {
+                    writer.release();
+                }
+                
+                frameCount = cube.frameCount.get();
+                if (frameCount == 0) {
+                    idle = true;
+                    return null;
+                }
+                cubeBytes = channel.size();
+                
+                Mat result = computeMedian(cube, tileProgress);
+                idle = true;
+                
+                if (masterDark != null) {
+                    subtract(result, masterDark, result);
+                }
+                return result;
+            } finally {
+                // Avant la suppression: un fichier encore mappé ne peut pas être supprimé sous Windows
+                cube.close(idle);
+            }
+        } finally {
+            if (!cubeFile.delete()) {
+                cubeFile.deleteOnExit();
+            }
+        }
+    }
+    
+    private Mat computeMedian(FrameCube cube, SegmentDecoder.ProgressCallback tileProgress)
+            throws Exception {
+        int width = cube.width;
+        int height = cube.height;
+        int channels = cube.channels;
+        boolean floating = cube.sampleBytes == 4;
+        int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int tileCount = tilesX * tilesY;
+        
+        // Mémoire d'une tâche: une bande de lignes de la tuile pour toutes les frames,
+        // plus la colonne de travail et la ligne de sortie. Le nombre de tâches puis la
+        // hauteur de bande sont ajustés au budget (une ligne au minimum).
+        int tileRowBytes = TILE_SIZE * channels * cube.sampleBytes;
+        long rowTaskBytes = (long) frameCount * tileRowBytes;
+        long fixedTaskBytes = frameCount * 4L + TILE_SIZE * channels * 4L;
+        concurrentTiles = (int) Math.max(1, Math.min(threadCount,
+            memoryBudgetBytes / (rowTaskBytes + fixedTaskBytes)));
+        int bandRows = (int) Math.max(1, Math.min(TILE_SIZE,
+            (memoryBudgetBytes / concurrentTiles - fixedTaskBytes) / rowTaskBytes));
+        peakWorkingBytes = Math.max(peakWorkingBytes,
+            concurrentTiles * (rowTaskBytes * bandRows + fixedTaskBytes)
+            + (long) width * height * channels * 4);
+        
+        Mat result = new Mat(height, width, CV_32FC(channels), Scalar.all(0));
+        AtomicInteger nextTile = new AtomicInteger();
+        AtomicInteger doneTiles = new AtomicInteger();
+        
+        ExecutorService pool = Executors.newFixedThreadPool(concurrentTiles);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < concurrentTiles; t++) {
+                tasks.add(pool.submit(() -> {
+                    int bandBytes = bandRows * tileRowBytes;
+                    byte[] samples = new byte[Math.toIntExact((long) frameCount * bandBytes)];
+                    FloatBuffer floats = ByteBuffer.wrap(samples).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                    int tileRowSamples = TILE_SIZE * channels;
+                    int[] column = new int[frameCount];
+                    float[] row = new float[tileRowSamples];
+                    
+                    int tile;
+                    while ((tile = nextTile.getAndIncrement()) < tileCount) {
+                        int tileX = (tile % tilesX) * TILE_SIZE;
+                        int tileY = (tile / tilesX) * TILE_SIZE;
+                        int tileWidth = Math.min(TILE_SIZE, width - tileX);
+                        int tileHeight = Math.min(TILE_SIZE, height - tileY);
+                        
+                        for (int band = 0; band < tileHeight; band += bandRows) {
+                            int rows = Math.min(bandRows, tileHeight - band);
+                            cube.readBand(tile, band, rows, frameCount, samples);
+                            
+                            for (int y = 0; y < rows; y++) {
+                                for (int x = 0; x < tileWidth * channels; x++) {
+                                    int offset = y * tileRowSamples + x;
+                                    if (floating) {
+                                        for (int n = 0; n < frameCount; n++) {
+                                            column[n] = sortableBits(floats.get(n * rows * tileRowSamples + offset));
+                                        }
+                                        row[x] = medianOfSortable(column, frameCount);
+                                    } else {
+                                        for (int n = 0; n < frameCount; n++) {
+                                            column[n] = samples[n * rows * tileRowSamples + offset] & 0xFF;
+                                        }
+                                        row[x] = median(column, frameCount);
+                                    }
+                                }
+                                new FloatPointer(result.ptr(tileY + band + y, tileX))
+                                    .put(row, 0, tileWidth * channels);
+                            }
+                        }
+                        
+                        int done = doneTiles.incrementAndGet();
+                        if (tileProgress != null && done % 16 == 0) {
+                            tileProgress.onFrames(done);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } catch (Exception e) {
+            result.release();
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Médiane des n premières valeurs (moyenne des deux centrales si n est pair).
+     * Le tableau est réordonné.
+     */
+    static float median(int[] values, int n) {
+        int k = n / 2;
+        int upper = select(values, 0, n - 1, k);
+        if (n % 2 == 1) {
+            return upper;
+        }
+        // Après sélection, la valeur de rang k-1 est le maximum de la partie gauche
+        int lower = values[0];
+        for (int i = 1; i < k; i++) {
+            if (values[i] > lower) lower = values[i];
+        }
+        return (lower + upper) / 2.0f;
+    }
+    
+    /**
+     * Entier dont l'ordre est celui des flottants: les valeurs CV_32F passent par le même
+     * quickselect que les échantillons 8 bits
+     */
+    static int sortableBits(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+    
+    static float fromSortableBits(int sortable) {
+        return Float.intBitsToFloat(sortable ^ ((sortable >> 31) & 0x7fffffff));
+    }
+    
+    /**
+     * median() sur des valeurs codées par sortableBits
+     */
+    static float medianOfSortable(int[] values, int n) {
+        int k = n / 2;
+        float upper = fromSortableBits(select(values, 0, n - 1, k));
+        if (n % 2 == 1) {
+            return upper;
+        }
+        int lower = values[0];
+        for (int i = 1; i < k; i++) {
+            if (values[i] > lower) lower = values[i];
+        }
+        return (fromSortableBits(lower) + upper) / 2.0f;
+    }
+    
+    /**
+     * Quickselect (Hoare, pivot médian de trois): valeur de rang k dans values[left..right]
+     */
+    static int select(int[] values, int left, int right, int k) {
+        while (left < right) {
+            int middle = (left + right) >>> 1;
+            if (values[middle] < values[left]) swap(values, middle, left);
+            if (values[right] < values[left]) swap(values, right, left);
+            if (values[right] < values[middle]) swap(values, right, middle);
+            int pivot = values[middle];
+            
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+    
+    private static void swap(int[] values, int i, int j) {
+        int tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+    
+    public int getFrameCount() {
+        return frameCount;
+    }
+    
+    /**
+     * Taille du cube sur disque, en octets
+     */
+    public long getCubeBytes() {
+        return cubeBytes;
+    }
+    
+    /**
+     * Nombre de tuiles traitées simultanément (borné par le budget mémoire)
+     */
+    public int getConcurrentTiles() {
+        return concurrentTiles;
+    }
+    
+    public long getPeakNativeBytes() {
+        return peakWorkingBytes;
+    }
+    
+    /**
+     * Cube de frames sur disque, échantillons de sampleBytes octets (1: CV_8U, 4: CV_32F).
+     * Bloc b = frames [b * blockFrames, (b + 1) * blockFrames), rangé tuile par tuile:
+     * offset(tuile, slot) = tuile * blockFrames * tileBytes + slot * tileBytes.
+     * Les tuiles de bord sont complétées (stride fixe TILE_SIZE * pixelBytes).
+     */
+    private class FrameCube {
+        private final FileChannel channel;
+        private final List<MappedByteBuffer> blocks = new ArrayList<>();
+        private final AtomicInteger frameCount = new AtomicInteger();
+        private int width;
+        private int height;
+        private int channels;
+        private int sampleBytes;
+        private int pixelBytes;
+        private int tilesX;
+        private int tileCount;
+        private int tileBytes;
+        private int blockFrames;
+        private long blockBytes;
+        private boolean initialized;
+        
+        FrameCube(FileChannel channel) {
+            this.channel = channel;
+        }
+        
+        synchronized void initialize(int width, int height, int channels, int sampleBytes) {
+            if (initialized) {
+                if (width != this.width || height != this.height || channels != this.channels
+                    || sampleBytes != this.sampleBytes) {
+                    throw new IllegalStateException("Dimensions de frame incohérentes dans le segment");
+                }
+                return;
+            }
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.sampleBytes = sampleBytes;
+            this.pixelBytes = channels * sampleBytes;
+            this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+            this.tileCount = tilesX * ((height + TILE_SIZE - 1) / TILE_SIZE);
+            this.tileBytes = TILE_SIZE * TILE_SIZE * pixelBytes;
+            long frameBytes = (long) tileCount * tileBytes;
+            this.blockFrames = (int) Math.max(1, Math.min(MAX_BLOCK_FRAMES, Integer.MAX_VALUE / frameBytes));
+            this.blockBytes = frameBytes * blockFrames;
+            this.initialized = true;
+        }
+        
+        /**
+         * Mapping du bloc, créé (et le fichier agrandi) à la première écriture
+         */
+        synchronized MappedByteBuffer block(int index) throws Exception {
+            while (blocks.size() <= index) {
+                blocks.add(channel.map(FileChannel.MapMode.READ_WRITE,
+                                       blocks.size() * blockBytes, blockBytes));
+            }
+            return blocks.get(index);
+        }
+        
+        /**
+         * Copie une frame (lignes de width * pixelBytes octets) dans son slot
+         */
+        void writeFrame(int index, byte[] pixels) throws Exception {
+            MappedByteBuffer block = block(index / blockFrames);
+            int slot = index % blockFrames;
+            int rowBytes = width * pixelBytes;
+            
+            for (int tile = 0; tile < tileCount; tile++) {
+                int tileX = (tile % tilesX) * TILE_SIZE;
+                int tileY = (tile / tilesX) * TILE_SIZE;
+                int tileRowBytes = Math.min(TILE_SIZE, width - tileX) * pixelBytes;
+                int tileHeight = Math.min(TILE_SIZE, height - tileY);
+                int base = (tile * blockFrames + slot) * tileBytes;
+                
+                for (int y = 0; y < tileHeight; y++) {
+                    block.put(base + y * TILE_SIZE * pixelBytes, pixels,
+                             (tileY + y) * rowBytes + tileX * pixelBytes, tileRowBytes);
+                }
+            }
+        }
+        
+        /**
+         * Lit les lignes [firstRow, firstRow + rows) d'une tuile pour les frames [0, count).
+         * Échantillon (frame n, octet i de la bande) rangé en samples[n * bande + i].
+         */
+        void readBand(int tile, int firstRow, int rows, int count, byte[] samples) throws Exception {
+            int tileRowBytes = TILE_SIZE * pixelBytes;
+            int bandBytes = rows * tileRowBytes;
+            
+            for (int start = 0; start < count; start += blockFrames) {
+                int frames = Math.min(blockFrames, count - start);
+                MappedByteBuffer block = block(start / blockFrames);
+                int base = tile * blockFrames * tileBytes;
+                
+                if (bandBytes == tileBytes) {
+                    // Tuile entière: une seule lecture contiguë pour tout le bloc
+                    block.get(base, samples, start * bandBytes, frames * bandBytes);
+                } else {
+                    for (int slot = 0; slot < frames; slot++) {
+                        block.get(base + slot * tileBytes + firstRow * tileRowBytes,
+                                 samples, (start + slot) * bandBytes, bandBytes);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Libère les mappings. Java ne démappe un MappedByteBuffer qu'à sa collecte, et
+         * Windows refuse de supprimer un fichier mappé: si plus aucun thread n'accède au cube,
+         * les blocs sont démappés immédiatement. Sinon (échec avec des workers encore actifs)
+         * un démappage forcé ferait planter la JVM: les références sont seulement lâchées et
+         * le fichier, faute de pouvoir être supprimé, l'est à la sortie (deleteOnExit).
+         */
+        synchronized void close(boolean unmap) {
+            if (unmap) {
+                for (MappedByteBuffer block : blocks) {
+                    unmap(block);
+                }
+            }
+            blocks.clear();
+        }
+    }
+    
+    /**
+     * Démappe un buffer via sun.misc.Unsafe.invokeCleaner (module jdk.unsupported);
+     * sans lui, le démappage attend la collecte du buffer
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Démappage différé à la collecte
+        }
+    }
+    
+    /**
+     * Sink d'un worker: frames 8 bits telles quelles, autres profondeurs en CV_32F
+     * (jamais ramenées en 8 bits), un slot réservé par frame
+     */
+    private class CubeWriter implements SegmentDecoder.FrameSink {
+        private final FrameCube cube;
+        private final Mat frame32F = new Mat();
+        private byte[] pixels;
+        
+        CubeWriter(FrameCube cube) {
+            this.cube = cube;
+        }
+        
+        @Override
+        public void accept(Mat frame, long timestamp) throws Exception {
+            Mat source = frame;
+            if (frame.depth() != CV_8U && frame.depth() != CV_32F) {
+                frame.convertTo(frame32F, CV_32F);
+                source = frame32F;
+            }
+            
+            int sampleBytes = source.depth() == CV_8U ? 1 : 4;
+            int rowBytes = source.cols() * source.channels() * sampleBytes;
+            cube.initialize(source.cols(), source.rows(), source.channels(), sampleBytes);
+            if (pixels == null) {
+                pixels = new byte[rowBytes * source.rows()];
+                synchronized (MedianStacker.this) {
+                    peakWorkingBytes += pixels.length;
+                }
+            }
+            
+            for (int y = 0; y < source.rows(); y++) {
+                source.ptr(y).get(pixels, y * rowBytes, rowBytes);
+            }
+            
+            cube.writeFrame(cube.frameCount.getAndIncrement(), pixels);
+        }
+        
+        void release() {
+            frame32F.release();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacv.Frame;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Écriture séquentielle des frames dans un seul fichier NumPy (.npy, version 1.0):
+ * tableau uint8 de forme (frames, hauteur, largeur, canaux), lisible directement par
+ * np.load(..., mmap_mode='r') ou np.memmap. L'en-tête a une taille fixe de HEADER_SIZE
+ * octets: le nombre de frames y est réécrit périodiquement et à la fermeture, un cube
+ * interrompu reste lisible jusqu'à la dernière mise à jour.
+ * Un index CSV donne pour chaque frame son timestamp et son offset dans le fichier.
+ */
+class NpyCubeWriter implements AutoCloseable {
+    
+    /** Taille de l'en-tête, multiple de 64 (alignement des données) */
+    private static final int HEADER_SIZE = 128;
+    
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    
+    private final FileChannel channel;
+    private final BufferedWriter index;
+    private final ByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int channels;
+    private int frameCount;
+    private long lastFlushMillis = System.currentTimeMillis();
+    
+    NpyCubeWriter(File file, File indexFile, int width, int height, int channels) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.buffer = ByteBuffer.allocateDirect(width * height * channels);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeHeader();
+            index = new BufferedWriter(new FileWriter(indexFile));
+            index.write("index,timestamp_us,timestamp_s,offset");
+            index.newLine();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Ajoute une frame 8 bits de la taille du cube; les lignes sont recopiées sans leur
+     * éventuel remplissage (imageStride) dans un tampon direct puis écrites en un bloc
+     */
+    void append(Frame frame, long timestamp) throws IOException {
+        if (frame.imageWidth != width || frame.imageHeight != height || frame.imageChannels != channels
+                || frame.imageDepth != Frame.DEPTH_UBYTE) {
+            throw new IOException(String.format("Frame %dx%dx%d incompatible avec le cube %dx%dx%d",
+                frame.imageWidth, frame.imageHeight, frame.imageChannels, width, height, channels));
+        }
+        
+        ByteBuffer source = ((ByteBuffer) frame.image[0]).duplicate();
+        int rowBytes = width * channels;
+        buffer.clear();
+        for (int y = 0; y < height; y++) {
+            source.limit(y * frame.imageStride + rowBytes);
+            source.position(y * frame.imageStride);
+            buffer.put(source);
+        }
+        buffer.flip();
+        
+        long offset = HEADER_SIZE + (long) frameCount * buffer.capacity();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        
+        index.write(String.format(Locale.ROOT, "%d,%d,%.6f,%d",
+                                  frameCount, timestamp, timestamp / 1_000_000.0, offset));
+        index.newLine();
+        frameCount++;
+        
+        long now = System.currentTimeMillis();
+        if (now - lastFlushMillis >= FLUSH_INTERVAL_MS) {
+            writeHeader();
+            index.flush();
+            lastFlushMillis = now;
+        }
+    }
+    
+    private void writeHeader() throws IOException {
+        String dictionary = String.format(Locale.ROOT,
+            "{'descr': '|u1', 'fortran_order': False, 'shape': (%d, %d, %d, %d), }",
+            frameCount, height, width, channels);
+        
+        // Magique, version 1.0, longueur du dictionnaire complété d'espaces et terminé par \n
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII));
+        header.put((byte) 1).put((byte) 0);
+        int length = HEADER_SIZE - 10;
+        header.put((byte) (length & 0xFF)).put((byte) (length >> 8));
+        header.put(dictionary.getBytes(StandardCharsets.US_ASCII));
+        while (header.position() < HEADER_SIZE - 1) {
+            header.put((byte) ' ');
+        }
+        header.put((byte) '\n');
+        header.flip();
+        
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            writeHeader();
+            index.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
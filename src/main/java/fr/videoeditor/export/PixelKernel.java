@@ -0,0 +1,85 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+
+/**
+ * Correction des pixels de l'export (dark, flat, luminosité) sur place dans la frame,
+ * sans Mat intermédiaire ni allocation par frame.
+ * Le master dark est quantifié une fois en 8 bits: les pixels étant entiers,
+ * arrondi(pixel - dark) = pixel - arrondi(dark), la soustraction saturée 8 bits donne
+ * le même résultat que le passage en flottant. La luminosité passe par une LUT de
+ * 256 entrées (arrondi et saturation de convertTo précalculés). Avec un flat, la
+ * division reste en flottant dans la Mat de travail fournie par l'appelant.
+ * Immuable une fois construit: partagé par les threads de traitement.
+ */
+public class PixelKernel implements AutoCloseable {
+    
+    private final Mat masterDark;     // CV_32F, pour la division par le flat
+    private final Mat quantizedDark;  // CV_8U, null sans dark
+    private final Mat brightnessLut;  // 1x256 CV_8U, null si luminosité 1.0
+    
+    /**
+     * masterDark: CV_32F aux dimensions des frames, ou null; il reste à libérer par l'appelant
+     */
+    public PixelKernel(Mat masterDark, double brightnessMultiplier) {
+        this.masterDark = masterDark;
+        
+        if (masterDark != null) {
+            quantizedDark = new Mat();
+            masterDark.convertTo(quantizedDark, CV_8U);
+        } else {
+            quantizedDark = null;
+        }
+        
+        if (brightnessMultiplier != 1.0) {
+            byte[] levels = new byte[256];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = (byte) Math.max(0, Math.min(255, Math.rint(i * brightnessMultiplier)));
+            }
+            brightnessLut = new Mat(1, 256, CV_8U);
+            brightnessLut.ptr(0).put(levels);
+        } else {
+            brightnessLut = null;
+        }
+    }
+    
+    /**
+     * true si apply() ne modifie pas les frames (ni dark, ni luminosité)
+     */
+    public boolean isIdentity() {
+        return quantizedDark == null && brightnessLut == null;
+    }
+    
+    /**
+     * Corrige une frame 8 bits sur place. masterFlat peut être null; calibrated est la
+     * Mat de travail flottante du thread, utilisée seulement avec un flat.
+     */
+    public void apply(Mat image, Mat masterFlat, Mat calibrated) {
+        if (masterFlat != null) {
+            image.convertTo(calibrated, CV_32FC3);
+            if (masterDark != null) {
+                subtract(calibrated, masterDark, calibrated);
+            }
+            divide(calibrated, masterFlat, calibrated);
+            // Même taille et même profondeur: réécrit le tampon de la frame
+            calibrated.convertTo(image, CV_8UC3);
+        } else if (quantizedDark != null) {
+            subtract(image, quantizedDark, image);
+        }
+        
+        if (brightnessLut != null) {
+            LUT(image, brightnessLut, image);
+        }
+    }
+    
+    @Override
+    public void close() {
+        if (quantizedDark != null) {
+            quantizedDark.release();
+        }
+        if (brightnessLut != null) {
+            brightnessLut.release();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Décodeur parallèle d'une plage vidéo.
+ * La plage [start, end] est découpée en sous-plages alignées sur les keyframes,
+ * chacune décodée par son propre FFmpegFrameGrabber sur un ForkJoinPool.
+ * Chaque worker alimente son propre FrameSink (résultats partiels), que
+ * l'appelant réduit à la fin.
+ */
+public class SegmentDecoder implements FrameSource {
+    
+    /**
+     * Reçoit les frames décodées d'un worker (jamais appelé en concurrence pour un même sink)
+     */
+    public interface FrameSink {
+        void accept(Mat frame, long timestamp) throws Exception;
+    }
+    
+    public interface ProgressCallback {
+        void onFrames(int decodedFrames);
+    }
+    
+    /** Écart au-delà duquel un seek est plus rapide que le décodage des frames intermédiaires */
+    private static final long SEEK_GAP_US = 2_000_000;
+    
+    private final File videoFile;
+    private final int workerCount;
+    
+    public SegmentDecoder(File videoFile, int workerCount) {
+        this.videoFile = videoFile;
+        this.workerCount = Math.max(1, workerCount);
+    }
+    
+    public File getVideoFile() {
+        return videoFile;
+    }
+    
+    /**
+     * Source ne livrant que les frames dont le timestamp figure dans la liste.
+     * Les grands trous entre deux frames retenues sont franchis par un seek
+     * au lieu d'être décodés.
+     */
+    public FrameSource selection(long[] timestamps) {
+        long[] sorted = timestamps.clone();
+        Arrays.sort(sorted);
+        
+        return new FrameSource() {
+            @Override
+            public <S extends FrameSink> List<S> decode(long startUs, long endUs,
+                                                        IntFunction<S> sinkFactory,
+                                                        ProgressCallback progress) throws Exception {
+                int from = lowerBound(sorted, startUs);
+                int to = lowerBound(sorted, endUs + 1);
+                int parts = Math.max(1, Math.min(workerCount, to - from));
+                
+                // Sous-listes contiguës de timestamps, une par worker
+                int[] bounds = new int[parts + 1];
+                for (int i = 0; i <= parts; i++) {
+                    bounds[i] = from + (to - from) * i / parts;
+                }
+                
+                return run(parts, sinkFactory, (part, sink, decodedFrames) ->
+                    decodeSelected(sorted, bounds[part], bounds[part + 1], sink, decodedFrames, progress));
+            }
+        };
+    }
+    
+    /**
+     * Décode [startUs, endUs] et retourne un sink par sous-plage
+     */
+    @Override
+    public <S extends FrameSink> List<S> decode(long startUs, long endUs,
+                                                IntFunction<S> sinkFactory,
+                                                ProgressCallback progress) throws Exception {
+        long[] bounds = splitRange(startUs, endUs);
+        int parts = bounds.length - 1;
+        
+        return run(parts, sinkFactory, (part, sink, decodedFrames) ->
+            decodeRange(bounds[part], bounds[part + 1], part == 0, part == parts - 1,
+                       sink, decodedFrames, progress));
+    }
+    
+    private interface PartDecoder {
+        void decode(int part, FrameSink sink, AtomicInteger decodedFrames) throws Exception;
+    }
+    
+    /**
+     * Exécute les parties sur un ForkJoinPool (directement si une seule) et retourne leurs sinks
+     */
+    private <S extends FrameSink> List<S> run(int parts, IntFunction<S> sinkFactory,
+                                              PartDecoder partDecoder) throws Exception {
+        List<S> sinks = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            sinks.add(sinkFactory.apply(i));
+        }
+        
+        AtomicInteger decodedFrames = new AtomicInteger();
+        
+        if (parts == 1) {
+            partDecoder.decode(0, sinks.get(0), decodedFrames);
+            return sinks;
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(parts);
+        try {
+            List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                final int part = i;
+                tasks.add(pool.submit(() -> {
+                    partDecoder.decode(part, sinks.get(part), decodedFrames);
+                    return null;
+                }));
+            }
+            
+            for (ForkJoinTask<Void> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        return sinks;
+    }
+    
+    /**
+     * Découpe la plage en sous-plages dont les bornes internes sont des keyframes
+     */
+    long[] splitRange(long startUs, long endUs) throws Exception {
+        if (workerCount == 1 || endUs <= startUs) {
+            return new long[]{startUs, endUs};
+        }
+        
+        long[] keyframes = KeyframeIndex.scan(videoFile, startUs, endUs);
+        
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(startUs);
+        
+        int next = 0;
+        for (int i = 1; i < workerCount; i++) {
+            long target = startUs + (endUs - startUs) * i / workerCount;
+            long previous = bounds.get(bounds.size() - 1);
+            
+            // Keyframe la plus proche de la cible, strictement après la borne précédente
+            long best = -1;
+            for (int k = next; k < keyframes.length; k++) {
+                long keyframe = keyframes[k];
+                if (keyframe <= previous) continue;
+                if (keyframe >= endUs) break;
+                if (best < 0 || Math.abs(keyframe - target) < Math.abs(best - target)) {
+                    best = keyframe;
+                    next = k + 1;
+                } else if (keyframe > target) {
+                    break;
+                }
+            }
+            
+            if (best >= 0) {
+                bounds.add(best);
+            }
+        }
+        
+        bounds.add(endUs);
+        
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+    
+    private void decodeRange(long fromUs, long toUs, boolean firstRange, boolean lastRange,
+                             FrameSink sink, AtomicInteger decodedFrames,
+                             ProgressCallback progress) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
+        
+        try {
+            grabber.start();
+            grabber.setTimestamp(fromUs);
+            
+            while (true) {
+                Frame frame = grabber.grabImage();
+                if (frame == null) break;
+                
+                long timestamp = grabber.getTimestamp();
+                if (lastRange ? timestamp > toUs : timestamp >= toUs) break;
+                
+                // Frame déjà traitée par la sous-plage précédente
+                if (!firstRange && timestamp < fromUs) continue;
+                
+                Mat mat = matConverter.convert(frame);
+                if (mat != null) {
+                    sink.accept(mat, timestamp);
+                    
+                    int count = decodedFrames.incrementAndGet();
+                    if (progress != null && count % 10 == 0) {
+                        progress.onFrames(count);
+                    }
+                }
+            }
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+            matConverter.close();
+        }
+    }
+    
+    /**
+     * Décode les frames sorted[from..to), en sautant par seek les écarts supérieurs à SEEK_GAP_US
+     */
+    private void decodeSelected(long[] sorted, int from, int to, FrameSink sink,
+                                AtomicInteger decodedFrames, ProgressCallback progress) throws Exception {
+        if (from >= to) return;
+        
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+        OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
+        
+        try {
+            grabber.start();
+            
+            // Tolérance d'une demi-période pour comparer les timestamps après un seek
+            double frameRate = grabber.getFrameRate();
+            long tolerance = frameRate > 0 ? (long) (500_000 / frameRate) : 1_000;
+            
+            int next = from;
+            grabber.setTimestamp(sorted[next]);
+            
+            while (next < to) {
+                Frame frame = grabber.grabImage();
+                if (frame == null) break;
+                
+                long timestamp = grabber.getTimestamp();
+                while (next < to && sorted[next] < timestamp - tolerance) {
+                    next++;
+                }
+                if (next == to) break;
+                
+                if (Math.abs(sorted[next] - timestamp) <= tolerance) {
+                    Mat mat = matConverter.convert(frame);
+                    if (mat != null) {
+                        sink.accept(mat, timestamp);
+                        
+                        int count = decodedFrames.incrementAndGet();
+                        if (progress != null && count % 10 == 0) {
+                            progress.onFrames(count);
+                        }
+                    }
+                    next++;
+                }
+                
+                if (next < to && sorted[next] - timestamp > SEEK_GAP_US) {
+                    grabber.setTimestamp(sorted[next]);
+                }
+            }
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+            matConverter.close();
+        }
+    }
+    
+    private static int lowerBound(long[] sorted, long value) {
+        int index = Arrays.binarySearch(sorted, value);
+        if (index < 0) return -index - 1;
+        while (index > 0 && sorted[index - 1] == value) index--;
+        return index;
+    }
+}
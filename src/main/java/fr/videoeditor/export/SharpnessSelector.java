@@ -0,0 +1,286 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sélection "lucky imaging": une passe rapide note la netteté de chaque frame
+ * (variance du Laplacien sur une ROI centrale réduite) et ne garde que les meilleures.
+ * Seuls les k meilleurs (score, timestamp) sont conservés, dans un tas-min de primitives:
+ * la mémoire ne dépend pas du nombre de frames de la capture.
+ */
+public class SharpnessSelector {
+    
+    /** Plus grande dimension de la ROI après réduction */
+    private static final int SCORE_SIZE = 256;
+    
+    private final SegmentDecoder decoder;
+    private final double percent;
+    private final int count;
+    private final File scoresFile;
+    private int scoredFrames;
+    private int selectedFrames;
+    private double bestScore;
+    private double thresholdScore;
+    private long bestTimestamp;
+    
+    /**
+     * @param percent pourcentage de frames à garder, utilisé si count <= 0
+     * @param count nombre de frames à garder (prioritaire si > 0)
+     * @param scoresFile CSV des scores par frame, ou null
+     */
+    public SharpnessSelector(SegmentDecoder decoder, double percent, int count, File scoresFile) {
+        this.decoder = decoder;
+        this.percent = percent;
+        this.count = count;
+        this.scoresFile = scoresFile;
+    }
+    
+    /**
+     * Note les frames de [startUs, endUs] et retourne les timestamps retenus, triés
+     */
+    public long[] select(long startUs, long endUs, SegmentDecoder.ProgressCallback progress) throws Exception {
+        // En pourcentage, k dépend du nombre total de frames, inconnu avant la fin de la passe:
+        // le tas est dimensionné sur une estimation (durée x fps) avec une marge, puis réduit
+        int capacity = count > 0 ? count
+            : (int) Math.ceil(estimateFrameCount(startUs, endUs) * percent / 100.0 * 1.1) + 1;
+        
+        BufferedWriter csv = null;
+        if (scoresFile != null) {
+            csv = new BufferedWriter(new FileWriter(scoresFile));
+            csv.write("timestamp_us,timestamp_s,score");
+            csv.newLine();
+        }
+        
+        try {
+            final BufferedWriter writer = csv;
+            List<Scorer> scorers = decoder.decode(startUs, endUs,
+                i -> new Scorer(new TopFrames(capacity), writer), progress);
+            
+            TopFrames best = new TopFrames(capacity);
+            scoredFrames = 0;
+            for (Scorer scorer : scorers) {
+                scoredFrames += scorer.scored;
+                best.addAll(scorer.top);
+                scorer.release();
+            }
+            
+            int keep = count > 0 ? count : (int) Math.ceil(scoredFrames * percent / 100.0);
+            best.trim(Math.max(1, keep));
+            
+            selectedFrames = best.size;
+            if (selectedFrames == 0) {
+                return new long[0];
+            }
+            thresholdScore = best.scores[0];
+            bestScore = best.maxScore();
+            bestTimestamp = best.timestamps[best.indexOfMax()];
+            
+            long[] timestamps = Arrays.copyOf(best.timestamps, best.size);
+            Arrays.sort(timestamps);
+            return timestamps;
+        } finally {
+            if (csv != null) {
+                csv.close();
+            }
+        }
+    }
+    
+    private int estimateFrameCount(long startUs, long endUs) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(decoder.getVideoFile());
+        try {
+            grabber.start();
+            double frameRate = grabber.getFrameRate() > 0 ? grabber.getFrameRate() : 30;
+            return (int) Math.ceil((endUs - startUs) / 1_000_000.0 * frameRate) + 1;
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+        }
+    }
+    
+    public int getScoredFrames() {
+        return scoredFrames;
+    }
+    
+    public int getSelectedFrames() {
+        return selectedFrames;
+    }
+    
+    public double getBestScore() {
+        return bestScore;
+    }
+    
+    /**
+     * Score de la moins bonne frame retenue
+     */
+    public double getThresholdScore() {
+        return thresholdScore;
+    }
+    
+    /**
+     * Timestamp de la frame la plus nette (bonne référence de recalage)
+     */
+    public long getBestTimestamp() {
+        return bestTimestamp;
+    }
+    
+    /**
+     * Tas-min borné des k meilleurs scores: la racine est le pire score retenu
+     */
+    static class TopFrames {
+        private final double[] scores;
+        private final long[] timestamps;
+        private int size;
+        
+        TopFrames(int capacity) {
+            scores = new double[Math.max(1, capacity)];
+            timestamps = new long[scores.length];
+        }
+        
+        void offer(double score, long timestamp) {
+            if (size < scores.length) {
+                scores[size] = score;
+                timestamps[size] = timestamp;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                scores[0] = score;
+                timestamps[0] = timestamp;
+                siftDown(0);
+            }
+        }
+        
+        void addAll(TopFrames other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.scores[i], other.timestamps[i]);
+            }
+        }
+        
+        /**
+         * Retire les pires jusqu'à ne garder que k éléments
+         */
+        void trim(int k) {
+            while (size > k) {
+                size--;
+                scores[0] = scores[size];
+                timestamps[0] = timestamps[size];
+                siftDown(0);
+            }
+        }
+        
+        double maxScore() {
+            return scores[indexOfMax()];
+        }
+        
+        int indexOfMax() {
+            int best = 0;
+            for (int i = 1; i < size; i++) {
+                if (scores[i] > scores[best]) best = i;
+            }
+            return best;
+        }
+        
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[parent] <= scores[i]) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+        
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) break;
+                int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+                if (scores[i] <= scores[smallest]) break;
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+        
+        private void swap(int a, int b) {
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+            long timestamp = timestamps[a];
+            timestamps[a] = timestamps[b];
+            timestamps[b] = timestamp;
+        }
+    }
+    
+    /**
+     * Sink d'un worker: note chaque frame, alimente son tas et le CSV
+     */
+    private static class Scorer implements SegmentDecoder.FrameSink {
+        private final TopFrames top;
+        private final BufferedWriter csv;
+        private final Mat grey = new Mat();
+        private final Mat small = new Mat();
+        private final Mat laplacian = new Mat();
+        private final Mat squared = new Mat();
+        private int scored;
+        
+        Scorer(TopFrames top, BufferedWriter csv) {
+            this.top = top;
+            this.csv = csv;
+        }
+        
+        @Override
+        public void accept(Mat frame, long timestamp) throws IOException {
+            double score = score(frame);
+            top.offer(score, timestamp);
+            scored++;
+            
+            if (csv != null) {
+                String line = String.format(Locale.ROOT, "%d,%.6f,%.4f",
+                                            timestamp, timestamp / 1_000_000.0, score);
+                synchronized (csv) {
+                    csv.write(line);
+                    csv.newLine();
+                }
+            }
+        }
+        
+        /**
+         * Variance du Laplacien sur la moitié centrale de l'image, réduite à SCORE_SIZE
+         */
+        double score(Mat frame) {
+            Mat roi = new Mat(frame, new Rect(frame.cols() / 4, frame.rows() / 4,
+                                              frame.cols() / 2, frame.rows() / 2));
+            if (roi.channels() == 3) {
+                cvtColor(roi, grey, COLOR_BGR2GRAY);
+            } else {
+                roi.copyTo(grey);
+            }
+            
+            double scale = Math.min(1.0, SCORE_SIZE / (double) Math.max(grey.cols(), grey.rows()));
+            resize(grey, small, new Size(Math.max(1, (int) (grey.cols() * scale)),
+                                         Math.max(1, (int) (grey.rows() * scale))), 0, 0, INTER_AREA);
+            
+            Laplacian(small, laplacian, CV_64F);
+            multiply(laplacian, laplacian, squared);
+            double n = laplacian.total();
+            double mean = sumElems(laplacian).get(0) / n;
+            return sumElems(squared).get(0) / n - mean * mean;
+        }
+        
+        void release() {
+            grey.release();
+            small.release();
+            laplacian.release();
+            squared.release();
+        }
+    }
+}
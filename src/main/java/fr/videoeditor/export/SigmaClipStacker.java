@@ -0,0 +1,287 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+import java.util.List;
+
+/**
+ * Stacking kappa-sigma en deux passes de décodage, à mémoire bornée.
+ * Passe 1: moyenne et variance par pixel en flux (algorithme de Welford).
+ * Passe 2: moyenne des seuls échantillons dans [moyenne - k.sigma, moyenne + k.sigma].
+ * Seuls quelques plans float sont conservés, jamais les N frames: satellites,
+ * avions et pixels chauds sont rejetés sans stocker le segment.
+ * Les calculs se font sur des vues mono-canal (reshape(1)), sans copie.
+ */
+public class SigmaClipStacker {
+    
+    private final FrameSource decoder;
+    private final double kappa;
+    private int frameCount;
+    private long firstPassMillis;
+    private long secondPassMillis;
+    private double rejectedFraction;
+    private long peakNativeBytes;
+    
+    public SigmaClipStacker(FrameSource decoder, double kappa) {
+        this.decoder = decoder;
+        this.kappa = kappa;
+    }
+    
+    /**
+     * Stacke [startUs, endUs] et retourne l'image CV_32F (null si aucune frame).
+     * Le master dark étant constant par pixel, il est soustrait du résultat final
+     * plutôt que de chaque frame: le rejet est inchangé et chaque passe économise une soustraction.
+     */
+    public Mat stack(long startUs, long endUs, Mat masterDark,
+                     SegmentDecoder.ProgressCallback firstPassProgress,
+                     SegmentDecoder.ProgressCallback secondPassProgress) throws Exception {
+        // Passe 1: statistiques de Welford, une par worker puis fusion
+        long passStart = System.currentTimeMillis();
+        Statistics statistics = Statistics.reduce(
+            decoder.decode(startUs, endUs, i -> new Statistics(), firstPassProgress));
+        firstPassMillis = System.currentTimeMillis() - passStart;
+        
+        frameCount = statistics.count;
+        if (frameCount == 0) {
+            statistics.release();
+            return null;
+        }
+        
+        Mat lower = new Mat();
+        Mat upper = new Mat();
+        statistics.bounds(kappa, lower, upper);
+        
+        // Passe 2: moyenne des échantillons non rejetés
+        passStart = System.currentTimeMillis();
+        List<ClippedSum> partials = decoder.decode(startUs, endUs,
+            i -> new ClippedSum(lower, upper), secondPassProgress);
+        ClippedSum clipped = ClippedSum.reduce(partials);
+        secondPassMillis = System.currentTimeMillis() - passStart;
+        
+        Mat result = clipped.mean(statistics.mean).reshape(statistics.channels);
+        
+        long samples = (long) frameCount * statistics.mean.total();
+        rejectedFraction = samples > 0 ? 1.0 - sumElems(clipped.count).get(0) / samples : 0;
+        peakNativeBytes = Math.max(statistics.peakNativeBytes,
+            clipped.peakNativeBytes + StackAccumulator.nativeBytes(lower) * 2);
+        
+        statistics.release();
+        clipped.release();
+        lower.release();
+        upper.release();
+        
+        if (masterDark != null) {
+            subtract(result, masterDark, result);
+        }
+        return result;
+    }
+    
+    public int getFrameCount() {
+        return frameCount;
+    }
+    
+    /**
+     * Durée de la passe 1 (statistiques); la comparaison avec la moyenne se mesure
+     * par BatchRunner bench stack
+     */
+    public long getFirstPassMillis() {
+        return firstPassMillis;
+    }
+    
+    public long getSecondPassMillis() {
+        return secondPassMillis;
+    }
+    
+    /**
+     * Proportion d'échantillons (pixel x canal x frame) rejetés
+     */
+    public double getRejectedFraction() {
+        return rejectedFraction;
+    }
+    
+    public long getPeakNativeBytes() {
+        return peakNativeBytes;
+    }
+    
+    /**
+     * Moyenne et somme des carrés des écarts (M2) par échantillon, en flux
+     */
+    static class Statistics implements SegmentDecoder.FrameSink {
+        private int count;
+        private int channels;
+        private Mat mean;
+        private Mat m2;
+        private Mat sample = new Mat();
+        private Mat delta = new Mat();
+        private Mat delta2 = new Mat();
+        private long peakNativeBytes;
+        
+        @Override
+        public void accept(Mat frame, long timestamp) {
+            frame.convertTo(sample, CV_32F);
+            channels = sample.channels();
+            Mat x = sample.reshape(1);
+            count++;
+            
+            if (count == 1) {
+                mean = x.clone();
+                m2 = new Mat(x.size(), CV_32F, Scalar.all(0));
+            } else {
+                // delta = x - moyenne; moyenne += delta / n; M2 += delta * (x - moyenne)
+                subtract(x, mean, delta);
+                scaleAdd(delta, 1.0 / count, mean, mean);
+                subtract(x, mean, delta2);
+                accumulateProduct(delta, delta2, m2);
+            }
+            
+            peakNativeBytes = Math.max(peakNativeBytes, StackAccumulator.nativeBytes(frame)
+                + StackAccumulator.nativeBytes(sample) * 5);
+        }
+        
+        /**
+         * Fusionne les statistiques d'un autre worker (formule de Chan)
+         */
+        void merge(Statistics other) {
+            if (other.count == 0) return;
+            if (count == 0) {
+                count = other.count;
+                channels = other.channels;
+                mean = other.mean.clone();
+                m2 = other.m2.clone();
+                return;
+            }
+            
+            double total = count + (double) other.count;
+            subtract(other.mean, mean, delta);
+            multiply(delta, delta, delta2);
+            scaleAdd(delta2, count * (double) other.count / total, m2, m2);
+            add(m2, other.m2, m2);
+            scaleAdd(delta, other.count / total, mean, mean);
+            
+            count += other.count;
+            peakNativeBytes += other.peakNativeBytes;
+        }
+        
+        /**
+         * Bornes de rejet moyenne +/- kappa * écart-type
+         */
+        void bounds(double kappa, Mat lower, Mat upper) {
+            Mat sigma = new Mat();
+            m2.convertTo(sigma, CV_32F, 1.0 / count, 0);
+            sqrt(sigma, sigma);
+            scaleAdd(sigma, -kappa, mean, lower);
+            scaleAdd(sigma, kappa, mean, upper);
+            sigma.release();
+        }
+        
+        static Statistics reduce(List<Statistics> partials) {
+            Statistics result = partials.get(0);
+            for (int i = 1; i < partials.size(); i++) {
+                result.merge(partials.get(i));
+                partials.get(i).release();
+            }
+            return result;
+        }
+        
+        void release() {
+            if (mean != null) mean.release();
+            if (m2 != null) m2.release();
+            sample.release();
+            delta.release();
+            delta2.release();
+        }
+    }
+    
+    /**
+     * Somme et nombre des échantillons compris dans les bornes
+     */
+    static class ClippedSum implements SegmentDecoder.FrameSink {
+        private final Mat lower;
+        private final Mat upper;
+        private Mat sum;
+        private Mat count;
+        private Mat sample = new Mat();
+        private Mat aboveLower = new Mat();
+        private Mat belowUpper = new Mat();
+        private Mat mask = new Mat();
+        private Mat weight = new Mat();
+        private long peakNativeBytes;
+        
+        ClippedSum(Mat lower, Mat upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+        
+        @Override
+        public void accept(Mat frame, long timestamp) {
+            frame.convertTo(sample, CV_32F);
+            Mat x = sample.reshape(1);
+            
+            if (sum == null) {
+                sum = new Mat(x.size(), CV_32F, Scalar.all(0));
+                count = new Mat(x.size(), CV_32F, Scalar.all(0));
+            }
+            
+            compare(x, lower, aboveLower, CMP_GE);
+            compare(x, upper, belowUpper, CMP_LE);
+            min(aboveLower, belowUpper, mask);
+            mask.convertTo(weight, CV_32F, 1.0 / 255, 0);
+            
+            accumulateProduct(x, weight, sum);
+            accumulate(weight, count);
+            
+            peakNativeBytes = Math.max(peakNativeBytes, StackAccumulator.nativeBytes(frame)
+                + StackAccumulator.nativeBytes(sample) * 4 + StackAccumulator.nativeBytes(mask) * 3);
+        }
+        
+        void merge(ClippedSum other) {
+            if (other.sum == null) return;
+            if (sum == null) {
+                sum = other.sum.clone();
+                count = other.count.clone();
+            } else {
+                add(sum, other.sum, sum);
+                add(count, other.count, count);
+            }
+            peakNativeBytes += other.peakNativeBytes;
+        }
+        
+        /**
+         * Moyenne clippée; retombe sur la moyenne simple là où tout a été rejeté
+         */
+        Mat mean(Mat fallback) {
+            Mat result = new Mat();
+            Mat denominator = new Mat();
+            max(count, new Mat(count.size(), CV_32F, Scalar.all(1)), denominator);
+            divide(sum, denominator, result);
+            
+            Mat empty = new Mat();
+            compare(count, new Mat(count.size(), CV_32F, Scalar.all(0)), empty, CMP_EQ);
+            fallback.copyTo(result, empty);
+            
+            denominator.release();
+            empty.release();
+            return result;
+        }
+        
+        static ClippedSum reduce(List<ClippedSum> partials) {
+            ClippedSum result = partials.get(0);
+            for (int i = 1; i < partials.size(); i++) {
+                result.merge(partials.get(i));
+                partials.get(i).release();
+            }
+            return result;
+        }
+        
+        void release() {
+            if (sum != null) sum.release();
+            if (count != null) count.release();
+            sample.release();
+            aboveLower.release();
+            belowUpper.release();
+            mask.release();
+            weight.release();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+
+/**
+ * Accumulateur de stacking en flux.
+ * Chaque frame décodée est ajoutée à une somme courante au lieu d'être
+ * conservée en mémoire: la mémoire native reste en O(1 frame) quelle que soit
+ * la longueur du segment.
+ * Les frames 8 bits sont additionnées directement dans une somme entière CV_32S
+ * (une seule passe, sans Mat temporaire, exacte jusqu'à 8 millions de frames);
+ * le master dark est alors soustrait une seule fois, multiplié par le nombre de frames.
+ * Les autres profondeurs passent par une somme CV_32F.
+ * Les sommes partielles des workers du SegmentDecoder sont réduites par merge().
+ */
+public class StackAccumulator implements SegmentDecoder.FrameSink {
+    
+    private final Mat masterDark;
+    private final StackPreview.Slot previewSlot;
+    private Mat sum;        // CV_32S (frames 8 bits) ou CV_32F
+    private Mat frame32F;   // Buffer de conversion réutilisé (somme flottante)
+    private Mat corrected;  // Buffer de soustraction du dark réutilisé (somme flottante)
+    private Mat pendingDark;      // Dark non encore soustrait de la somme entière
+    private int pendingDarkFrames;
+    private int count;
+    private long peakNativeBytes;
+    
+    public StackAccumulator() {
+        this(null);
+    }
+    
+    /**
+     * Accumulateur soustrayant le master dark de chaque frame reçue via accept()
+     */
+    public StackAccumulator(Mat masterDark) {
+        this(masterDark, null);
+    }
+    
+    /**
+     * Accumulateur alimentant en plus l'aperçu progressif (ignoré si null)
+     */
+    public StackAccumulator(Mat masterDark, StackPreview preview) {
+        this.masterDark = masterDark;
+        this.previewSlot = preview != null ? preview.newSlot() : null;
+    }
+    
+    @Override
+    public void accept(Mat frame, long timestamp) {
+        addFrame(frame, masterDark);
+        if (previewSlot != null) {
+            previewSlot.frameAdded(this);
+        }
+    }
+    
+    /**
+     * Ajoute une frame à la somme courante
+     */
+    public void addFrame(Mat frame) {
+        addFrame(frame, null);
+    }
+    
+    /**
+     * Ajoute une frame après soustraction du master dark (ignoré si null)
+     */
+    public void addFrame(Mat frame, Mat masterDark) {
+        boolean integer = frame.depth() == CV_8U && (count == 0 || sum.depth() == CV_32S)
+                          && (pendingDarkFrames == 0 || masterDark == pendingDark);
+        
+        if (integer) {
+            // Somme entière: frame 8 bits ajoutée sans conversion préalable
+            if (count == 0) {
+                sum = new Mat(frame.size(), CV_MAKETYPE(CV_32S, frame.channels()), Scalar.all(0));
+            }
+            add(sum, frame, sum, noArray(), CV_32S);
+            if (masterDark != null) {
+                pendingDark = masterDark;
+                pendingDarkFrames++;
+            }
+        } else {
+            toFloat();
+            if (frame32F == null) {
+                frame32F = new Mat();
+            }
+            frame.convertTo(frame32F, CV_32F);
+            
+            Mat contribution = frame32F;
+            if (masterDark != null) {
+                if (corrected == null) {
+                    corrected = new Mat();
+                }
+                subtract(frame32F, masterDark, corrected);
+                contribution = corrected;
+            }
+            
+            if (count == 0) {
+                sum = new Mat();
+                contribution.copyTo(sum);
+            } else {
+                add(sum, contribution, sum);
+            }
+        }
+        count++;
+        
+        long used = nativeBytes(sum) + nativeBytes(frame32F) + nativeBytes(corrected)
+                  + nativeBytes(frame) + nativeBytes(masterDark);
+        peakNativeBytes = Math.max(peakNativeBytes, used);
+    }
+    
+    /**
+     * Passe la somme en CV_32F, dark en attente soustrait (sans effet si déjà flottante)
+     */
+    private void toFloat() {
+        if (count == 0 || sum.depth() == CV_32F) return;
+        
+        Mat sumFloat = new Mat();
+        sum.convertTo(sumFloat, CV_32F);
+        sum.release();
+        sum = sumFloat;
+        
+        if (pendingDarkFrames > 0) {
+            scaleAdd(pendingDark, -pendingDarkFrames, sum, sum);
+            pendingDark = null;
+            pendingDarkFrames = 0;
+        }
+    }
+    
+    /**
+     * Ajoute la somme partielle d'un autre accumulateur
+     */
+    public void merge(StackAccumulator other) {
+        if (other.count == 0) return;
+        
+        if (count == 0) {
+            sum = new Mat();
+            other.sum.copyTo(sum);
+            pendingDark = other.pendingDark;
+            pendingDarkFrames = other.pendingDarkFrames;
+        } else if (sum.depth() == CV_32S && other.sum.depth() == CV_32S
+                   && (pendingDarkFrames == 0 || other.pendingDarkFrames == 0
+                       || pendingDark == other.pendingDark)) {
+            add(sum, other.sum, sum);
+            if (other.pendingDarkFrames > 0) {
+                pendingDark = other.pendingDark;
+                pendingDarkFrames += other.pendingDarkFrames;
+            }
+        } else {
+            toFloat();
+            other.toFloat();
+            add(sum, other.sum, sum);
+        }
+        count += other.count;
+        
+        // Les workers tournent en même temps: leurs pics s'additionnent
+        peakNativeBytes += other.peakNativeBytes;
+    }
+    
+    /**
+     * Réduit les accumulateurs partiels dans le premier et libère les autres
+     */
+    public static StackAccumulator reduce(java.util.List<StackAccumulator> partials) {
+        StackAccumulator result = partials.get(0);
+        for (int i = 1; i < partials.size(); i++) {
+            result.merge(partials.get(i));
+            partials.get(i).release();
+        }
+        return result;
+    }
+    
+    /**
+     * Nombre de frames accumulées
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * Somme courante (CV_32S ou CV_32F), dark en attente non soustrait; null si vide
+     */
+    Mat getSum() {
+        return sum;
+    }
+    
+    /**
+     * Master dark restant à soustraire getPendingDarkFrames() fois de la somme entière
+     * (null si aucun)
+     */
+    public Mat getPendingDark() {
+        return pendingDark;
+    }
+    
+    public int getPendingDarkFrames() {
+        return pendingDarkFrames;
+    }
+    
+    /**
+     * Calcule la moyenne des frames accumulées (nouvelle Mat CV_32F, null si vide)
+     */
+    public Mat mean() {
+        if (count == 0) return null;
+        
+        Mat result = new Mat();
+        sum.convertTo(result, CV_32F);
+        if (pendingDarkFrames > 0) {
+            scaleAdd(pendingDark, -pendingDarkFrames, result, result);
+        }
+        divide(result, new Mat(result.size(), result.type(),
+              Scalar.all(count)), result);
+        return result;
+    }
+    
+    /**
+     * Pic de mémoire native utilisée par les buffers de stacking (octets)
+     */
+    public long getPeakNativeBytes() {
+        return peakNativeBytes;
+    }
+    
+    /**
+     * Libère les buffers natifs
+     */
+    public void release() {
+        if (sum != null) {
+            sum.release();
+            sum = null;
+        }
+        if (frame32F != null) {
+            frame32F.release();
+            frame32F = null;
+        }
+        if (corrected != null) {
+            corrected.release();
+            corrected = null;
+        }
+        pendingDark = null;
+        pendingDarkFrames = 0;
+        if (previewSlot != null) {
+            previewSlot.release();
+        }
+    }
+    
+    static long nativeBytes(Mat mat) {
+        if (mat == null || mat.isNull() || mat.empty()) return 0;
+        return mat.total() * mat.elemSize();
+    }
+}
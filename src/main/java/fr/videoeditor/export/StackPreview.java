@@ -0,0 +1,242 @@
+package fr.videoeditor.export;
+
+import org.bytedeco.opencv.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Aperçu progressif d'un stacking en cours.
+ * Chaque accumulateur possède un Slot contenant sa somme partielle réduite, sans copie
+ * de la somme pleine résolution (INTER_AREA, ou INTER_NEAREST pour une somme entière;
+ * dark en attente déduit).
+ * Au plus toutes les MIN_FRAMES frames et INTERVAL_MS,
+ * le worker qui déclenche l'aperçu rafraîchit son slot, additionne les slots réduits
+ * et publie la moyenne; les autres workers rafraîchissent le leur à leur frame suivante.
+ * L'intervalle s'allonge si l'aperçu coûte plus de 5% du temps écoulé.
+ */
+public class StackPreview {
+    
+    /**
+     * Reçoit les aperçus, depuis un thread de décodage (jamais en concurrence)
+     */
+    public interface Listener {
+        void onPreview(BufferedImage preview, int frameCount);
+    }
+    
+    /** Plus grande dimension de l'aperçu */
+    private static final int PREVIEW_SIZE = 480;
+    
+    private static final int MIN_FRAMES = 10;
+    
+    private static final long INTERVAL_MS = 500;
+    
+    /** Temps écoulé minimal par milliseconde passée à calculer l'aperçu (5%) */
+    private static final long COST_FACTOR = 20;
+    
+    private final Listener listener;
+    private final List<Slot> slots = new ArrayList<>();
+    private final AtomicInteger frames = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final ReentrantLock publishing = new ReentrantLock();
+    private volatile long nextMillis = System.currentTimeMillis() + INTERVAL_MS;
+    private volatile int nextFrames = MIN_FRAMES;
+    private long previewNanos;
+    
+    public StackPreview(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Slot d'un nouvel accumulateur
+     */
+    public synchronized Slot newSlot() {
+        Slot slot = new Slot();
+        slots.add(slot);
+        return slot;
+    }
+    
+    /**
+     * Temps cumulé passé à calculer les aperçus (ms)
+     */
+    public synchronized long getPreviewMillis() {
+        return previewNanos / 1_000_000;
+    }
+    
+    /**
+     * Somme partielle réduite d'un accumulateur
+     */
+    public class Slot {
+        private Mat small;
+        private Mat smallInt;     // Somme entière réduite, avant conversion CV_32F
+        private Mat smallDark;    // Dark en attente réduit, recalculé si le dark change
+        private Mat darkSource;
+        private int count;
+        private int seenGeneration;
+        
+        /**
+         * Appelé par l'accumulateur (son propre thread) après chaque frame ajoutée
+         */
+        public void frameAdded(StackAccumulator accumulator) {
+            int total = frames.incrementAndGet();
+            
+            int current = generation.get();
+            if (seenGeneration != current) {
+                long start = System.nanoTime();
+                refresh(accumulator, current);
+                addCost(System.nanoTime() - start);
+            }
+            
+            if (total < nextFrames || System.currentTimeMillis() < nextMillis
+                    || !publishing.tryLock()) {
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                refresh(accumulator, generation.incrementAndGet());
+                publish(total);
+                long cost = System.nanoTime() - start;
+                addCost(cost);
+                
+                nextFrames = total + MIN_FRAMES;
+                nextMillis = System.currentTimeMillis()
+                    + Math.max(INTERVAL_MS, COST_FACTOR * cost / 1_000_000);
+            } finally {
+                publishing.unlock();
+            }
+        }
+        
+        private void refresh(StackAccumulator accumulator, int newGeneration) {
+            Mat sum = accumulator.getSum();
+            double scale = Math.min(1.0, PREVIEW_SIZE / (double) Math.max(sum.cols(), sum.rows()));
+            Size size = new Size(Math.max(1, (int) (sum.cols() * scale)),
+                                 Math.max(1, (int) (sum.rows() * scale)));
+            synchronized (this) {
+                if (small == null) {
+                    small = new Mat();
+                }
+                int interpolation;
+                if (sum.depth() == CV_32F) {
+                    interpolation = INTER_AREA;
+                    resize(sum, small, size, 0, 0, interpolation);
+                } else {
+                    // INTER_AREA ne gère pas CV_32S: échantillonnage direct, seule
+                    // la somme réduite est convertie
+                    interpolation = INTER_NEAREST;
+                    if (smallInt == null) {
+                        smallInt = new Mat();
+                    }
+                    resize(sum, smallInt, size, 0, 0, interpolation);
+                    smallInt.convertTo(small, CV_32F);
+                }
+                
+                // La somme entière contient encore n x dark
+                Mat pendingDark = accumulator.getPendingDark();
+                if (pendingDark != null && accumulator.getPendingDarkFrames() > 0) {
+                    if (pendingDark != darkSource) {
+                        if (smallDark == null) {
+                            smallDark = new Mat();
+                        }
+                        // Même échantillonnage que la somme
+                        resize(pendingDark, smallDark, size, 0, 0, interpolation);
+                        darkSource = pendingDark;
+                    }
+                    scaleAdd(smallDark, -accumulator.getPendingDarkFrames(), small, small);
+                }
+                count = accumulator.getCount();
+                seenGeneration = newGeneration;
+            }
+        }
+        
+        /**
+         * Libère la somme réduite
+         */
+        public synchronized void release() {
+            if (small != null) {
+                small.release();
+                small = null;
+            }
+            if (smallInt != null) {
+                smallInt.release();
+                smallInt = null;
+            }
+            if (smallDark != null) {
+                smallDark.release();
+                smallDark = null;
+            }
+            darkSource = null;
+            count = 0;
+        }
+    }
+    
+    private synchronized void addCost(long nanos) {
+        previewNanos += nanos;
+    }
+    
+    /**
+     * Moyenne des slots réduits, convertie en image 8 bits
+     */
+    private void publish(int total) {
+        Mat sum = null;
+        int count = 0;
+        
+        List<Slot> current;
+        synchronized (this) {
+            current = new ArrayList<>(slots);
+        }
+        for (Slot slot : current) {
+            synchronized (slot) {
+                if (slot.small == null || slot.count == 0) continue;
+                if (sum == null) {
+                    sum = new Mat();
+                    slot.small.copyTo(sum);
+                } else if (sum.size().width() == slot.small.size().width()
+                        && sum.size().height() == slot.small.size().height()) {
+                    add(sum, slot.small, sum);
+                } else {
+                    continue;
+                }
+                count += slot.count;
+            }
+        }
+        if (sum == null) return;
+        
+        Mat preview = new Mat();
+        sum.convertTo(preview, CV_8U, 1.0 / count, 0);
+        sum.release();
+        
+        BufferedImage image = toImage(preview);
+        preview.release();
+        if (image != null) {
+            listener.onPreview(image, total);
+        }
+    }
+    
+    /**
+     * Copie en bloc d'une Mat 8 bits continue (BGR ou niveaux de gris) dans une BufferedImage
+     */
+    static BufferedImage toImage(Mat mat) {
+        int type;
+        if (mat.channels() == 3) {
+            type = BufferedImage.TYPE_3BYTE_BGR;
+        } else if (mat.channels() == 1) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+        } else {
+            return null;
+        }
+        
+        BufferedImage image = new BufferedImage(mat.cols(), mat.rows(), type);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Mat continuous = mat.isContinuous() ? mat : mat.clone();
+        continuous.data().get(pixels);
+        if (continuous != mat) {
+            continuous.release();
+        }
+        return image;
+    }
+}
@@ -0,0 +1,167 @@
+package fr.videoeditor.export;
+
+import java.io.File;
+
+/**
+ * Options de stacking
+ */
+public class StackingOptions {
+    
+    /**
+     * Méthode de combinaison des frames
+     */
+    public enum Method {
+        MEAN("Moyenne"),
+        SIGMA_CLIP("Sigma-clipping (kappa-sigma)"),
+        MEDIAN("Médiane (hors mémoire)");
+        
+        private final String label;
+        
+        Method(String label) {
+            this.label = label;
+        }
+        
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+    
+    private int workerCount;
+    private Method method;
+    private double kappa;
+    private int medianMemoryBudgetMb;
+    private boolean alignmentEnabled;
+    private boolean rotationEnabled;
+    private boolean frameSelectionEnabled;
+    private double selectionPercent;
+    private int selectionCount;
+    private File scoresFile;
+    private boolean previewEnabled;
+    
+    public StackingOptions() {
+        this.workerCount = Runtime.getRuntime().availableProcessors();
+        this.method = Method.MEAN;
+        this.kappa = 2.5;
+        this.medianMemoryBudgetMb = 512;
+        this.selectionPercent = 10.0;
+    }
+    
+    /**
+     * Nombre de décodeurs parallèles (un FFmpegFrameGrabber par worker)
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+    
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+    
+    public Method getMethod() {
+        return method;
+    }
+    
+    public void setMethod(Method method) {
+        this.method = method;
+    }
+    
+    /**
+     * Seuil de rejet du sigma-clipping, en nombre d'écarts-types
+     */
+    public double getKappa() {
+        return kappa;
+    }
+    
+    public void setKappa(double kappa) {
+        this.kappa = kappa;
+    }
+    
+    /**
+     * Mémoire de travail allouée au calcul de la médiane, quel que soit le nombre de frames
+     */
+    public int getMedianMemoryBudgetMb() {
+        return medianMemoryBudgetMb;
+    }
+    
+    public void setMedianMemoryBudgetMb(int medianMemoryBudgetMb) {
+        this.medianMemoryBudgetMb = Math.max(16, medianMemoryBudgetMb);
+    }
+    
+    /**
+     * Recalage des frames sur la première frame du segment (corrélation de phase)
+     */
+    public boolean isAlignmentEnabled() {
+        return alignmentEnabled;
+    }
+    
+    public void setAlignmentEnabled(boolean alignmentEnabled) {
+        this.alignmentEnabled = alignmentEnabled;
+    }
+    
+    /**
+     * Estime aussi la rotation de champ (monture alt-azimutale), en plus de la translation
+     */
+    public boolean isRotationEnabled() {
+        return rotationEnabled;
+    }
+    
+    public void setRotationEnabled(boolean rotationEnabled) {
+        this.rotationEnabled = rotationEnabled;
+    }
+    
+    /**
+     * Lucky imaging: ne stacker que les frames les plus nettes
+     */
+    public boolean isFrameSelectionEnabled() {
+        return frameSelectionEnabled;
+    }
+    
+    public void setFrameSelectionEnabled(boolean frameSelectionEnabled) {
+        this.frameSelectionEnabled = frameSelectionEnabled;
+    }
+    
+    /**
+     * Pourcentage de frames gardées, utilisé si aucun nombre n'est fixé
+     */
+    public double getSelectionPercent() {
+        return selectionPercent;
+    }
+    
+    public void setSelectionPercent(double selectionPercent) {
+        this.selectionPercent = Math.max(0.1, Math.min(100.0, selectionPercent));
+    }
+    
+    /**
+     * Nombre de frames gardées (0 = utiliser le pourcentage)
+     */
+    public int getSelectionCount() {
+        return selectionCount;
+    }
+    
+    public void setSelectionCount(int selectionCount) {
+        this.selectionCount = Math.max(0, selectionCount);
+    }
+    
+    /**
+     * Export CSV des scores de netteté par frame (null = pas d'export)
+     */
+    public File getScoresFile() {
+        return scoresFile;
+    }
+    
+    public void setScoresFile(File scoresFile) {
+        this.scoresFile = scoresFile;
+    }
+    
+    /**
+     * Aperçu progressif du stack (moyenne) transmis à ProgressListener.onPreview
+     */
+    public boolean isPreviewEnabled() {
+        return previewEnabled;
+    }
+    
+    public void setPreviewEnabled(boolean previewEnabled) {
+        this.previewEnabled = previewEnabled;
+    }
+}
@@ -0,0 +1,899 @@
+package fr.videoeditor.export;
+
+import fr.videoeditor.model.VideoSegment;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avformat.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Export sans réencodage: les paquets compressés des segments sont recopiés (remuxage)
+ * dans le conteneur de sortie, sans décodage. Les plages exclues par l'offset sont
+ * retirées comme dans l'export réencodé.
+ * <p>
+ * En H.264, le rendu est "intelligent": seuls les GOP partiels en tête et en queue de
+ * chaque plage (avant la première image clé et à partir de la dernière) sont réencodés
+ * avec les paramètres de la source, les GOP intérieurs sont recopiés: les coupes sont
+ * à la frame près pour le coût d'environ deux GOP d'encodage par plage.
+ * Pour les autres codecs, chaque plage commence à l'image clé qui précède son début.
+ */
+class StreamCopier {
+    
+    private static final AVRational MICROSECONDS = av_make_q(1, 1_000_000);
+    
+    /** Type NAL H.264 des délimiteurs d'unité d'accès, inutiles en MP4 */
+    private static final int NAL_ACCESS_UNIT_DELIMITER = 9;
+    
+    private StreamCopier() {}
+    
+    /**
+     * Remuxe les segments dans outputFile; retourne false, sans rien écrire, si les fichiers
+     * sources n'ont pas tous les mêmes flux (voir compatible) ou si le conteneur refuse le codec
+     */
+    static boolean copy(List<VideoSegment> segments, File outputFile, String format,
+                        VideoExporter.ProgressListener listener) throws Exception {
+        return copy(segments, outputFile, format, true, null, listener);
+    }
+    
+    /**
+     * Concatène des fichiers entiers, mis bout à bout par copie des paquets (sans rendu intelligent).
+     * audioFile, s'il n'est pas null, fournit la piste audio de la sortie, recopiée telle quelle
+     * et entrelacée avec la vidéo: encodée d'un seul tenant, elle n'a pas de raccord AAC
+     * (silence d'amorçage) aux jonctions des fichiers, qui sont alors vidéo seule.
+     */
+    static boolean concat(List<File> files, File audioFile, File outputFile, String format,
+                          VideoExporter.ProgressListener listener) throws Exception {
+        List<VideoSegment> segments = new ArrayList<>();
+        for (File file : files) {
+            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+            try {
+                grabber.start();
+                // Une seconde de marge: la plage couvre tous les paquets du fichier
+                segments.add(new VideoSegment(file, grabber.getLengthInTime() / 1_000_000.0 + 1));
+            } finally {
+                try {
+                    grabber.stop();
+                    grabber.release();
+                } catch (Exception ex) {}
+            }
+        }
+        return copy(segments, outputFile, format, false, audioFile, listener);
+    }
+    
+    private static boolean copy(List<VideoSegment> segments, File outputFile, String format, boolean smart,
+                                File audioFile, VideoExporter.ProgressListener listener) throws Exception {
+        FFmpegFrameGrabber reference = new FFmpegFrameGrabber(segments.get(0).getVideoFile());
+        FFmpegFrameGrabber audioTrack = null;
+        AVFormatContext merged = null;
+        FFmpegFrameRecorder recorder = null;
+        boolean started = false;
+        
+        try {
+            reference.start();
+            AVFormatContext referenceContext = reference.getFormatContext();
+            int videoStream = KeyframeIndex.findStream(referenceContext, AVMEDIA_TYPE_VIDEO);
+            int audioStream = KeyframeIndex.findStream(referenceContext, AVMEDIA_TYPE_AUDIO);
+            if (videoStream < 0 || !compatible(segments, referenceContext, videoStream, audioStream)) {
+                return false;
+            }
+            
+            // Flux de sortie: ceux de la première source, ou sa vidéo et l'audio de audioFile
+            AVFormatContext streams = referenceContext;
+            FFmpegFrameGrabber audioReference = reference;
+            int audioTrackStream = -1;
+            if (audioFile != null) {
+                audioTrack = new FFmpegFrameGrabber(audioFile);
+                audioTrack.start();
+                audioTrackStream = KeyframeIndex.findStream(audioTrack.getFormatContext(), AVMEDIA_TYPE_AUDIO);
+                if (audioTrackStream < 0) {
+                    return false;
+                }
+                merged = merge(referenceContext.streams(videoStream),
+                               audioTrack.getFormatContext().streams(audioTrackStream));
+                streams = merged;
+                audioReference = audioTrack;
+                videoStream = 0;
+                audioStream = 1;
+            }
+            
+            recorder = new FFmpegFrameRecorder(outputFile, reference.getImageWidth(),
+                                               reference.getImageHeight(), audioReference.getAudioChannels());
+            recorder.setFormat(format);
+            recorder.setFrameRate(reference.getFrameRate());
+            recorder.setVideoCodec(reference.getVideoCodec());
+            if (audioStream >= 0) {
+                recorder.setAudioCodec(audioReference.getAudioCodec());
+                recorder.setSampleRate(audioReference.getSampleRate());
+            }
+            try {
+                // Les paramètres des flux sont recopiés de la première source
+                recorder.start(streams);
+            } catch (Exception e) {
+                return false;
+            }
+            started = true;
+            
+            long totalUs = 0;
+            for (VideoSegment segment : segments) {
+                for (long[] range : ranges(segment)) {
+                    totalUs += range[1] - range[0];
+                }
+            }
+            
+            Output output = new Output(recorder, streams, videoStream, audioStream,
+                                       totalUs, reference.getFrameRate(), listener);
+            if (audioTrack != null) {
+                output.audioTrack = audioTrack;
+                output.audioTrackStream = audioTrackStream;
+            }
+            
+            // SPS/PPS H.264 de l'avcC: réinjectables après un GOP réencodé, donc rendu intelligent possible
+            AVCodecParameters video = referenceContext.streams(videoStream).codecpar();
+            Encoder encoder = null;
+            output.activeParameterSets = parameterSets(video);
+            if (smart && output.activeParameterSets != null) {
+                encoder = new Encoder(reference, video);
+            }
+            
+            for (int segIdx = 0; segIdx < segments.size(); segIdx++) {
+                VideoSegment segment = segments.get(segIdx);
+                if (listener != null) {
+                    listener.onProgress(-1, String.format("Segment %d/%d: %s (%s)",
+                                                          segIdx + 1, segments.size(),
+                                                          segment.getVideoFile().getName(),
+                                                          encoder != null ? "rendu intelligent" : "copie des flux"));
+                }
+                copySegment(segment, output, encoder);
+            }
+            output.interleaveAudioTrack(Long.MAX_VALUE);
+            
+            recorder.stop();
+            recorder.release();
+            recorder = null;
+            return true;
+        
+        } finally {
+            if (recorder != null) {
+                try { recorder.stop(); recorder.release(); } catch (Exception ex) {}
+                if (!started) {
+                    outputFile.delete();
+                }
+            }
+            if (merged != null) {
+                avformat_free_context(merged);
+            }
+            if (audioTrack != null) {
+                try {
+                    audioTrack.stop();
+                    audioTrack.release();
+                } catch (Exception ex) {}
+            }
+            try {
+                reference.stop();
+                reference.release();
+            } catch (Exception ex) {}
+        }
+    }
+    
+    /**
+     * Contexte d'entrée factice portant les paramètres d'un flux vidéo (index 0) et d'un flux
+     * audio (index 1) de deux fichiers différents: recordPacket ne sait recopier que les flux
+     * d'un seul contexte. À libérer par avformat_free_context une fois le recorder arrêté.
+     */
+    private static AVFormatContext merge(AVStream video, AVStream audio) throws Exception {
+        AVFormatContext context = avformat_alloc_context();
+        for (AVStream source : new AVStream[]{video, audio}) {
+            AVStream stream = avformat_new_stream(context, null);
+            if (stream == null || avcodec_parameters_copy(stream.codecpar(), source.codecpar()) < 0) {
+                avformat_free_context(context);
+                throw new Exception("Copie des paramètres de flux impossible");
+            }
+            stream.time_base(source.time_base());
+            stream.r_frame_rate(source.r_frame_rate());
+            stream.avg_frame_rate(source.avg_frame_rate());
+        }
+        return context;
+    }
+    
+    /**
+     * Mêmes paramètres de flux pour tous les fichiers des segments: codec, taille, format
+     * de pixel, profil, niveau et extradata (SPS/PPS) en vidéo, codec, fréquence et canaux
+     * en audio. Au moindre écart, l'export repasse par le réencodage.
+     */
+    private static boolean compatible(List<VideoSegment> segments, AVFormatContext reference,
+                                      int videoStream, int audioStream) throws Exception {
+        AVCodecParameters video = reference.streams(videoStream).codecpar();
+        AVCodecParameters audio = audioStream >= 0 ? reference.streams(audioStream).codecpar() : null;
+        
+        Set<File> files = new LinkedHashSet<>();
+        for (VideoSegment segment : segments) {
+            files.add(segment.getVideoFile());
+        }
+        files.remove(segments.get(0).getVideoFile());
+        
+        for (File file : files) {
+            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+            try {
+                grabber.start();
+                AVFormatContext context = grabber.getFormatContext();
+                int otherVideo = KeyframeIndex.findStream(context, AVMEDIA_TYPE_VIDEO);
+                int otherAudio = KeyframeIndex.findStream(context, AVMEDIA_TYPE_AUDIO);
+                if (otherVideo < 0) return false;
+                
+                AVCodecParameters parameters = context.streams(otherVideo).codecpar();
+                if (parameters.codec_id() != video.codec_id() || parameters.width() != video.width()
+                        || parameters.height() != video.height() || parameters.format() != video.format()
+                        || parameters.profile() != video.profile() || parameters.level() != video.level()
+                        || !Arrays.equals(bytes(parameters.extradata(), parameters.extradata_size()),
+                                          bytes(video.extradata(), video.extradata_size()))) {
+                    return false;
+                }
+                if (audio != null && otherAudio >= 0) {
+                    AVCodecParameters otherParameters = context.streams(otherAudio).codecpar();
+                    if (otherParameters.codec_id() != audio.codec_id()
+                            || otherParameters.sample_rate() != audio.sample_rate()
+                            || otherParameters.ch_layout().nb_channels() != audio.ch_layout().nb_channels()) {
+                        return false;
+                    }
+                }
+            } finally {
+                try {
+                    grabber.stop();
+                    grabber.release();
+                } catch (Exception ex) {}
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Plages conservées d'un segment (µs): le segment, moins la plage d'offset s'il y en a une
+     */
+    private static List<long[]> ranges(VideoSegment segment) {
+        long start = (long) (segment.getStartTime() * 1_000_000);
+        long end = (long) (segment.getEndTime() * 1_000_000);
+        List<long[]> ranges = new ArrayList<>();
+        
+        if (segment.isOffsetEnabled()) {
+            long offsetStart = (long) (segment.getOffsetStart() * 1_000_000);
+            long offsetEnd = (long) (segment.getOffsetEnd() * 1_000_000);
+            if (offsetStart > start) {
+                ranges.add(new long[]{start, Math.min(end, offsetStart)});
+            }
+            if (offsetEnd < end) {
+                ranges.add(new long[]{Math.max(start, offsetEnd), end});
+            }
+        } else {
+            ranges.add(new long[]{start, end});
+        }
+        return ranges;
+    }
+    
+    private static void copySegment(VideoSegment segment, Output output, Encoder encoder) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
+        
+        try {
+            grabber.start();
+            
+            // SPS/PPS propres à ce fichier, réinjectés s'ils diffèrent de ceux en vigueur
+            AVFormatContext context = grabber.getFormatContext();
+            output.parameterSets = parameterSets(
+                context.streams(KeyframeIndex.findStream(context, AVMEDIA_TYPE_VIDEO)).codecpar());
+            
+            for (long[] range : ranges(segment)) {
+                if (encoder != null && output.parameterSets != null) {
+                    smartRange(grabber, segment.getVideoFile(), range, output, encoder);
+                } else {
+                    copyRange(grabber, range, output);
+                }
+            }
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+        }
+    }
+    
+    /**
+     * Copie d'une plage coupée aux images clés: de l'image clé qui précède le début
+     * jusqu'au dernier paquet décodé avant la fin
+     */
+    private static void copyRange(FFmpegFrameGrabber grabber, long[] range, Output output) throws Exception {
+        AVFormatContext context = grabber.getFormatContext();
+        int videoStream = KeyframeIndex.findStream(context, AVMEDIA_TYPE_VIDEO);
+        int audioStream = KeyframeIndex.findStream(context, AVMEDIA_TYPE_AUDIO);
+        
+        av_seek_frame(context, -1, range[0], AVSEEK_FLAG_BACKWARD);
+        output.beginRange(AV_NOPTS_VALUE);
+        
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            try {
+                int stream = packet.stream_index();
+                if (stream == videoStream) {
+                    AVRational timeBase = context.streams(stream).time_base();
+                    // dts croissant: au-delà de la fin, plus aucun paquet n'est affiché avant elle
+                    long dts = KeyframeIndex.toMicros(packet.dts(), timeBase);
+                    if (dts != AV_NOPTS_VALUE && dts > range[1]) break;
+                    
+                    output.copyVideo(packet, timeBase);
+                } else if (stream == audioStream) {
+                    output.writeAudio(packet, context.streams(stream).time_base(), range);
+                }
+            } finally {
+                av_packet_unref(packet);
+            }
+        }
+        output.endRange();
+    }
+    
+    /**
+     * Rendu intelligent d'une plage: [début, K1[ et [Kn, fin] sont réencodés, les GOP
+     * complets [K1, Kn[ sont recopiés, K1 et Kn étant la première et la dernière image clé
+     * de la plage. Avec moins de deux images clés, ou en GOP ouvert (les images B qui suivent
+     * une image clé dépendent du GOP précédent, réencodé ou absent), la plage est
+     * entièrement réencodée.
+     */
+    private static void smartRange(FFmpegFrameGrabber grabber, File videoFile, long[] range,
+                                   Output output, Encoder encoder) throws Exception {
+        long[] keyframes = KeyframeIndex.scan(videoFile, range[0], range[1]);
+        boolean interior = keyframes.length >= 2 && !KeyframeIndex.hasOpenGop(videoFile, range[0], range[1]);
+        long firstKey = interior ? keyframes[0] : AV_NOPTS_VALUE;
+        long lastKey = interior ? keyframes[keyframes.length - 1] : AV_NOPTS_VALUE;
+        long tolerance = output.periodUs / 2;
+        
+        Chunk head = null;
+        Chunk tail = null;
+        try {
+            // Tête jusqu'à la première image clé exclue (ou toute la plage), queue depuis la dernière
+            if (!interior) {
+                head = encoder.encode(videoFile, range[0], range[1] + 1);
+            } else {
+                if (firstKey - range[0] > tolerance) {
+                    head = encoder.encode(videoFile, range[0], firstKey - tolerance);
+                }
+                tail = encoder.encode(videoFile, lastKey, range[1] + 1);
+            }
+            
+            AVFormatContext context = grabber.getFormatContext();
+            int videoStream = KeyframeIndex.findStream(context, AVMEDIA_TYPE_VIDEO);
+            int audioStream = KeyframeIndex.findStream(context, AVMEDIA_TYPE_AUDIO);
+            
+            av_seek_frame(context, -1, range[0], AVSEEK_FLAG_BACKWARD);
+            output.beginRange(range[0]);
+            
+            // Décalage pts - dts des images clés copiées (images B), repris par les GOP réencodés
+            long headLeadUs = 0;
+            long tailLeadUs = 0;
+            boolean copying = false;
+            boolean headWritten = false;
+            
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                try {
+                    int stream = packet.stream_index();
+                    if (stream == videoStream) {
+                        AVRational timeBase = context.streams(stream).time_base();
+                        long dts = KeyframeIndex.toMicros(packet.dts(), timeBase);
+                        if (dts != AV_NOPTS_VALUE && dts > range[1]) break;
+                        if (!interior) continue;
+                        
+                        long pts = KeyframeIndex.toMicros(KeyframeIndex.packetTimestamp(packet), timeBase);
+                        long leadUs = dts != AV_NOPTS_VALUE ? pts - dts : 0;
+                        boolean key = (packet.flags() & AV_PKT_FLAG_KEY) != 0;
+                        if (key && !headWritten && Math.abs(pts - firstKey) <= tolerance) {
+                            headLeadUs = leadUs;
+                            if (head != null) {
+                                output.writeChunk(head, headLeadUs);
+                            }
+                            headWritten = true;
+                            copying = true;
+                        } else if (key && copying && Math.abs(pts - lastKey) <= tolerance) {
+                            // Dernier GOP: réencodé par la queue
+                            tailLeadUs = leadUs;
+                            copying = false;
+                        }
+                        
+                        if (copying) {
+                            output.copyVideo(packet, timeBase);
+                        }
+                    } else if (stream == audioStream) {
+                        output.writeAudio(packet, context.streams(stream).time_base(), range);
+                    }
+                } finally {
+                    av_packet_unref(packet);
+                }
+            }
+            
+            if (head != null && !headWritten) {
+                output.writeChunk(head, headLeadUs);
+            }
+            if (tail != null) {
+                output.writeChunk(tail, tailLeadUs);
+            }
+            output.endRange();
+        
+        } finally {
+            if (head != null) {
+                head.file.delete();
+            }
+            if (tail != null) {
+                tail.file.delete();
+            }
+        }
+    }
+    
+    /**
+     * Réencodeur des GOP partiels, aux paramètres du flux source (taille, format de pixel,
+     * cadence, profil, débit). Sans images B: les paquets réencodés acceptent
+     * n'importe quel décalage dts.
+     */
+    private static class Encoder {
+        final int width;
+        final int height;
+        final int pixelFormat;
+        final double frameRate;
+        final String profile;
+        final long bitrate;
+        
+        Encoder(FFmpegFrameGrabber reference, AVCodecParameters video) {
+            this.width = video.width();
+            this.height = video.height();
+            this.pixelFormat = video.format() >= 0 ? video.format() : AV_PIX_FMT_YUV420P;
+            this.frameRate = reference.getFrameRate();
+            this.bitrate = video.bit_rate();
+            switch (video.profile()) {
+                case 66:
+                    profile = "baseline";
+                    break;
+                case 77:
+                    profile = "main";
+                    break;
+                case 100:
+                    profile = "high";
+                    break;
+                default:
+                    profile = null;
+            }
+        }
+        
+        /**
+         * Réencode les frames de [from, to[ dans un fichier MPEG-TS temporaire: sans en-tête
+         * global, les SPS/PPS de l'encodeur restent dans le flux devant chaque image clé
+         */
+        Chunk encode(File videoFile, long from, long to) throws Exception {
+            File file = File.createTempFile("smart-render", ".ts");
+            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file, width, height, 0);
+            long tolerance = frameRate > 0 ? (long) (500_000 / frameRate) : 1_000;
+            long first = AV_NOPTS_VALUE;
+            
+            try {
+                // Frames décodées dans le format de la source: ni passage par BGR24 ni écart
+                // de couleur aux raccords avec les GOP copiés
+                grabber.setPixelFormat(pixelFormat);
+                grabber.start();
+                
+                recorder.setFormat("mpegts");
+                recorder.setVideoCodec(AV_CODEC_ID_H264);
+                recorder.setPixelFormat(pixelFormat);
+                recorder.setFrameRate(frameRate);
+                recorder.setGopSize(100_000);
+                recorder.setVideoOption("x264-params", "bframes=0");
+                if (profile != null) {
+                    recorder.setVideoOption("profile", profile);
+                }
+                if (bitrate > 0) {
+                    recorder.setVideoBitrate((int) Math.min(Integer.MAX_VALUE, bitrate));
+                } else {
+                    recorder.setVideoQuality(18);
+                }
+                recorder.start();
+                
+                grabber.setTimestamp(from);
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null) {
+                    long timestamp = grabber.getTimestamp();
+                    if (timestamp < from - tolerance) continue;
+                    if (timestamp >= to) break;
+                    
+                    if (first == AV_NOPTS_VALUE) {
+                        first = timestamp;
+                    }
+                    recorder.record(frame);
+                }
+            } catch (Exception e) {
+                file.delete();
+                throw e;
+            } finally {
+                try {
+                    recorder.stop();
+                    recorder.release();
+                } catch (Exception ex) {}
+                try {
+                    grabber.stop();
+                    grabber.release();
+                } catch (Exception ex) {}
+            }
+            return new Chunk(file, first);
+        }
+    }
+    
+    /**
+     * GOP réencodé: fichier temporaire et timestamp source de sa première frame
+     */
+    private static class Chunk {
+        final File file;
+        final long firstUs;
+        
+        Chunk(File file, long firstUs) {
+            this.file = file;
+            this.firstUs = firstUs;
+        }
+    }
+    
+    /**
+     * Fichier de sortie et horloge continue: les paquets de chaque plage sont décalés pour
+     * suivre la plage précédente, dans la base de temps des flux de la première source
+     */
+    private static class Output {
+        final FFmpegFrameRecorder recorder;
+        final AVFormatContext reference;
+        final int videoStream;
+        final int audioStream;
+        final long totalUs;
+        final long periodUs;
+        final VideoExporter.ProgressListener listener;
+        
+        /**
+         * SPS/PPS du fichier copié et ceux en vigueur dans le décodeur (null après un GOP réencodé,
+         * qui porte les siens): s'ils diffèrent, ils sont injectés devant la prochaine image clé copiée
+         */
+        byte[] parameterSets;
+        byte[] activeParameterSets;
+        
+        /** Position de la plage courante dans la sortie et instant source correspondant */
+        long baseUs;
+        long cutUs = AV_NOPTS_VALUE;
+        long endUs;
+        boolean videoStarted;
+        final List<AVPacket> pendingAudio = new ArrayList<>();
+        long lastVideoDtsUs = Long.MIN_VALUE;
+        long lastAudioDtsUs = Long.MIN_VALUE;
+        long copiedUs;
+        int lastPercent = -1;
+        
+        /** Piste audio externe (concat), recopiée au fil de la vidéo; prochain paquet déjà lu */
+        FFmpegFrameGrabber audioTrack;
+        int audioTrackStream = -1;
+        AVPacket nextAudio;
+        
+        Output(FFmpegFrameRecorder recorder, AVFormatContext reference, int videoStream, int audioStream,
+               long totalUs, double frameRate, VideoExporter.ProgressListener listener) {
+            this.recorder = recorder;
+            this.reference = reference;
+            this.videoStream = videoStream;
+            this.audioStream = audioStream;
+            this.totalUs = Math.max(1, totalUs);
+            this.periodUs = frameRate > 0 ? (long) (1_000_000 / frameRate) : 40_000;
+            this.listener = listener;
+        }
+        
+        /**
+         * Nouvelle plage à la suite de la précédente; cutUs est l'instant source placé au début,
+         * AV_NOPTS_VALUE pour le prendre sur la première image clé copiée
+         */
+        void beginRange(long cutUs) {
+            this.cutUs = cutUs;
+            baseUs = endUs;
+            videoStarted = false;
+        }
+        
+        void endRange() throws Exception {
+            flushPendingAudio();
+            if (videoStarted) {
+                copiedUs += endUs - baseUs;
+            }
+        }
+        
+        /**
+         * Paquet vidéo recopié de la source
+         */
+        void copyVideo(AVPacket packet, AVRational timeBase) throws Exception {
+            long pts = KeyframeIndex.toMicros(KeyframeIndex.packetTimestamp(packet), timeBase);
+            long dts = KeyframeIndex.toMicros(packet.dts(), timeBase);
+            if (pts == AV_NOPTS_VALUE) return;
+            if (dts == AV_NOPTS_VALUE) {
+                dts = pts;
+            }
+            
+            boolean key = (packet.flags() & AV_PKT_FLAG_KEY) != 0;
+            if (cutUs == AV_NOPTS_VALUE) {
+                // La plage commence à la première image clé lue
+                if (!key) return;
+                cutUs = pts;
+            }
+            if (!videoStarted && !key) return;
+            
+            long durationUs = packet.duration() > 0 ? KeyframeIndex.toMicros(packet.duration(), timeBase) : periodUs;
+            if (key && parameterSets != null && !Arrays.equals(parameterSets, activeParameterSets)) {
+                byte[] data = bytes(packet.data(), packet.size());
+                byte[] prefixed = new byte[parameterSets.length + data.length];
+                System.arraycopy(parameterSets, 0, prefixed, 0, parameterSets.length);
+                System.arraycopy(data, 0, prefixed, parameterSets.length, data.length);
+                writeVideo(prefixed, true, pts, dts, durationUs);
+                activeParameterSets = parameterSets;
+            } else {
+                writeVideo(packet, pts, dts, durationUs);
+            }
+        }
+        
+        /**
+         * Paquets d'un GOP réencodé, convertis du format Annex B (MPEG-TS) en NAL préfixés
+         * par leur longueur (MP4); dts = pts - leadUs pour s'enchaîner aux paquets copiés
+         */
+        void writeChunk(Chunk chunk, long leadUs) throws Exception {
+            if (chunk.firstUs == AV_NOPTS_VALUE) return;
+            
+            FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(chunk.file);
+            try {
+                grabber.start();
+                AVFormatContext context = grabber.getFormatContext();
+                int stream = KeyframeIndex.findStream(context, AVMEDIA_TYPE_VIDEO);
+                AVRational timeBase = context.streams(stream).time_base();
+                long origin = AV_NOPTS_VALUE;
+                
+                AVPacket packet;
+                while ((packet = grabber.grabPacket()) != null) {
+                    try {
+                        if (packet.stream_index() != stream) continue;
+                        long pts = KeyframeIndex.toMicros(KeyframeIndex.packetTimestamp(packet), timeBase);
+                        if (pts == AV_NOPTS_VALUE) continue;
+                        if (origin == AV_NOPTS_VALUE) {
+                            origin = pts;
+                        }
+                        
+                        long sourcePts = chunk.firstUs + pts - origin;
+                        byte[] data = toLengthPrefixed(bytes(packet.data(), packet.size()));
+                        writeVideo(data, (packet.flags() & AV_PKT_FLAG_KEY) != 0,
+                                   sourcePts, sourcePts - leadUs, periodUs);
+                        activeParameterSets = null;
+                    } finally {
+                        av_packet_unref(packet);
+                    }
+                }
+            } finally {
+                try {
+                    grabber.stop();
+                    grabber.release();
+                } catch (Exception ex) {}
+            }
+        }
+        
+        /**
+         * Paquet audio de la plage; tant que cutUs n'est pas connu (première image clé
+         * pas encore lue), il est mis en attente et filtré au placement de la plage
+         */
+        void writeAudio(AVPacket packet, AVRational timeBase, long[] range) throws Exception {
+            // Avec une piste audio externe, l'audio des sources n'est jamais recopié
+            if (audioStream < 0 || audioTrack != null) return;
+            
+            long pts = KeyframeIndex.toMicros(KeyframeIndex.packetTimestamp(packet), timeBase);
+            if (pts == AV_NOPTS_VALUE || pts < range[0] || pts > range[1]) return;
+            if (cutUs != AV_NOPTS_VALUE && pts < cutUs) return;
+            
+            // Copie conservée jusqu'au placement de la plage, timestamps en µs
+            AVPacket copy = av_packet_clone(packet);
+            copy.pts(pts);
+            copy.duration(KeyframeIndex.toMicros(packet.duration(), timeBase));
+            pendingAudio.add(copy);
+            if (videoStarted) {
+                flushPendingAudio();
+            }
+        }
+        
+        /**
+         * Écrit l'audio en attente une fois la plage placée par son premier paquet vidéo;
+         * sans vidéo dans la plage, il est abandonné
+         */
+        private void flushPendingAudio() throws Exception {
+            for (AVPacket packet : pendingAudio) {
+                try {
+                    long outPts = packet.pts() - cutUs + baseUs;
+                    if (videoStarted && packet.pts() >= cutUs && outPts > lastAudioDtsUs) {
+                        lastAudioDtsUs = outPts;
+                        write(packet, audioStream, outPts, outPts, packet.duration());
+                    }
+                } finally {
+                    av_packet_free(packet);
+                }
+            }
+            pendingAudio.clear();
+        }
+        
+        /**
+         * Écrit les paquets de la piste audio externe jusqu'à l'instant de sortie untilUs;
+         * ses timestamps sont déjà ceux de la sortie (encodée d'un seul tenant depuis 0)
+         */
+        void interleaveAudioTrack(long untilUs) throws Exception {
+            if (audioTrack == null) return;
+            AVRational timeBase = audioTrack.getFormatContext().streams(audioTrackStream).time_base();
+            
+            while (true) {
+                if (nextAudio == null) {
+                    AVPacket packet = audioTrack.grabPacket();
+                    if (packet == null) return;
+                    try {
+                        if (packet.stream_index() != audioTrackStream
+                                || KeyframeIndex.packetTimestamp(packet) == AV_NOPTS_VALUE) continue;
+                        nextAudio = av_packet_clone(packet);
+                    } finally {
+                        av_packet_unref(packet);
+                    }
+                }
+                
+                long pts = KeyframeIndex.toMicros(KeyframeIndex.packetTimestamp(nextAudio), timeBase);
+                if (pts > untilUs) return;
+                try {
+                    write(nextAudio, audioStream, pts, pts, KeyframeIndex.toMicros(nextAudio.duration(), timeBase));
+                } finally {
+                    av_packet_free(nextAudio);
+                    nextAudio = null;
+                }
+            }
+        }
+        
+        private void writeVideo(byte[] data, boolean key, long ptsUs, long dtsUs, long durationUs) throws Exception {
+            AVPacket packet = av_packet_alloc();
+            try {
+                if (av_new_packet(packet, data.length) < 0) {
+                    throw new Exception("Allocation d'un paquet vidéo impossible");
+                }
+                packet.data().put(data);
+                packet.flags(key ? AV_PKT_FLAG_KEY : 0);
+                writeVideo(packet, ptsUs, dtsUs, durationUs);
+            } finally {
+                av_packet_free(packet);
+            }
+        }
+        
+        /**
+         * Place un paquet vidéo (timestamps source) dans la sortie; le premier de la plage
+         * la décale si besoin pour que les dts restent croissants
+         */
+        private void writeVideo(AVPacket packet, long ptsUs, long dtsUs, long durationUs) throws Exception {
+            if (!videoStarted) {
+                long firstDts = dtsUs - cutUs + baseUs;
+                if (lastVideoDtsUs != Long.MIN_VALUE && firstDts <= lastVideoDtsUs) {
+                    baseUs += lastVideoDtsUs - firstDts + periodUs;
+                }
+                videoStarted = true;
+            }
+            
+            long outPts = ptsUs - cutUs + baseUs;
+            long outDts = dtsUs - cutUs + baseUs;
+            if (outDts <= lastVideoDtsUs) return;
+            lastVideoDtsUs = outDts;
+            endUs = Math.max(endUs, outPts + durationUs);
+            write(packet, videoStream, outPts, outDts, durationUs);
+            flushPendingAudio();
+            interleaveAudioTrack(outDts);
+            
+            int percent = (int) (100 * Math.min(totalUs, copiedUs + endUs - baseUs) / totalUs);
+            if (percent != lastPercent && listener != null) {
+                lastPercent = percent;
+                listener.onProgress(percent, String.format("Progression: %d%%", percent));
+            }
+        }
+        
+        /**
+         * Réécrit les timestamps dans la base du flux de référence, que recordPacket
+         * convertit ensuite dans celle du fichier de sortie
+         */
+        private void write(AVPacket packet, int stream, long ptsUs, long dtsUs, long durationUs) throws Exception {
+            AVRational timeBase = reference.streams(stream).time_base();
+            packet.stream_index(stream);
+            packet.pts(av_rescale_q(ptsUs, MICROSECONDS, timeBase));
+            packet.dts(av_rescale_q(dtsUs, MICROSECONDS, timeBase));
+            packet.duration(av_rescale_q(durationUs, MICROSECONDS, timeBase));
+            recorder.recordPacket(packet);
+        }
+    }
+    
+    private static byte[] bytes(BytePointer pointer, int size) {
+        byte[] data = new byte[Math.max(0, size)];
+        if (pointer != null && size > 0) {
+            pointer.position(0).get(data);
+        }
+        return data;
+    }
+    
+    /**
+     * SPS et PPS de l'enregistrement avcC (extradata H.264 en MP4) d'un flux, en NAL préfixés
+     * par leur longueur sur 4 octets; null si l'extradata n'est pas un avcC ou si les NAL
+     * du flux n'ont pas des longueurs sur 4 octets
+     */
+    private static byte[] parameterSets(AVCodecParameters video) {
+        if (video.codec_id() != AV_CODEC_ID_H264) {
+            return null;
+        }
+        byte[] avcC = bytes(video.extradata(), video.extradata_size());
+        if (avcC.length < 7 || avcC[0] != 1 || (avcC[4] & 0x03) != 3) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int position = 5;
+        for (int list = 0; list < 2; list++) {
+            if (position >= avcC.length) return null;
+            int count = list == 0 ? avcC[position] & 0x1F : avcC[position] & 0xFF;
+            position++;
+            for (int i = 0; i < count; i++) {
+                if (position + 2 > avcC.length) return null;
+                int length = ((avcC[position] & 0xFF) << 8) | (avcC[position + 1] & 0xFF);
+                position += 2;
+                if (position + length > avcC.length) return null;
+                writeLength(out, length);
+                out.write(avcC, position, length);
+                position += length;
+            }
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Convertit des NAL séparés par des codes de début (00 00 01 ou 00 00 00 01) en NAL
+     * préfixés par leur longueur sur 4 octets, sans les délimiteurs d'unité d'accès
+     */
+    private static byte[] toLengthPrefixed(byte[] annexB) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(annexB.length + 16);
+        int start = nextStartCode(annexB, 0);
+        while (start >= 0) {
+            int nal = start + (annexB[start + 2] == 1 ? 3 : 4);
+            int next = nextStartCode(annexB, nal);
+            int end = next >= 0 ? next : annexB.length;
+            // Zéros de fin (trailing_zero_8bits), qui précèdent le code de début suivant
+            while (end > nal && annexB[end - 1] == 0) {
+                end--;
+            }
+            if (end > nal && (annexB[nal] & 0x1F) != NAL_ACCESS_UNIT_DELIMITER) {
+                writeLength(out, end - nal);
+                out.write(annexB, nal, end - nal);
+            }
+            start = next;
+        }
+        return out.toByteArray();
+    }
+    
+    private static int nextStartCode(byte[] data, int from) {
+        for (int i = from; i + 2 < data.length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0) {
+                if (data[i + 2] == 1) return i;
+                if (data[i + 2] == 0 && i + 3 < data.length && data[i + 3] == 1) return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        out.write(length >>> 24);
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+    }
+}
@@ -9,507 +9,901 @@ import static org.bytedeco.ffmpeg.global.avcodec.*;
 import org.bytedeco.ffmpeg.global.avutil;
 import javax.swing.*;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Classe pour exporter les vidéos
  */
 public class VideoExporter {
     
+    /** Durée par défaut des morceaux encodés en parallèle dans un segment long (secondes) */
+    public static final double DEFAULT_CHUNK_SECONDS = 60;
+    
+    /** Capacité des files entre les étages décodage, traitement et encodage */
+    private static final int PIPELINE_DEPTH = 8;
+    
+    /** Marque la fin d'un segment dans les files du pipeline */
+    private static final Frame END_OF_SEGMENT = new Frame();
+    
     public interface ProgressListener {
         void onProgress(int percent, String message);
         void onComplete(boolean success, String message);
     }
     
+    /**
+     * Export MP4 dans un SwingWorker; la progression et le résultat
+     * sont transmis au listener sur l'EDT
+     */
     public static void exportVideo(List<VideoSegment> segments, File outputFile, 
                                    double brightnessMultiplier, boolean applyOffsetProcessing,
                                    ProgressListener listener) {
-        SwingWorker<Boolean, String> worker = new SwingWorker<>() {
-            @Override
-            protected Boolean doInBackground() throws Exception {
-                FFmpegFrameRecorder recorder = null;
-                Java2DFrameConverter converter = new Java2DFrameConverter();
-                Mat masterDark = null;
-                
-                try {
-                    VideoSegment firstSegment = segments.get(0);
-                    FFmpegFrameGrabber firstGrabber = new FFmpegFrameGrabber(firstSegment.getVideoFile());
-                    firstGrabber.start();
-                    
-                    int width = firstGrabber.getImageWidth();
-                    int height = firstGrabber.getImageHeight();
-                    double frameRate = firstGrabber.getFrameRate();
-                    int audioChannels = firstGrabber.getAudioChannels();
-                    
-                    publish("Initialisation de l'export...");
-                    
-                    // Calculer le master dark si traitement offset activé
-                    if (applyOffsetProcessing) {
-                        publish("Calcul du Master Dark...");
-                        masterDark = calculateMasterDark(segments, width, height);
-                        if (masterDark != null) {
-                            publish("Master Dark calculé");
-                        }
-                    }
-                    
-                    recorder = new FFmpegFrameRecorder(outputFile, width, height, audioChannels);
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                    recorder.setFormat("mp4");
-                    recorder.setFrameRate(frameRate);
-                    recorder.setVideoBitrate(8000000);
-                    
-                    if (audioChannels > 0) {
-                        recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-                        recorder.setAudioBitrate(192000);
-                        recorder.setSampleRate(firstGrabber.getSampleRate());
-                    }
-                    
-                    recorder.start();
-                    firstGrabber.stop();
-                    
-                    int totalFrames = 0;
-                    for (VideoSegment segment : segments) {
-                        double duration = segment.getSegmentDuration();
-                        if (segment.isOffsetEnabled()) {
-                            double offsetDuration = segment.getOffsetEnd() - segment.getOffsetStart();
-                            duration -= offsetDuration;
-                        }
-                        totalFrames += (int) (duration * frameRate);
-                    }
-                    
-                    int processedFrames = 0;
-                    
-                    for (int segIdx = 0; segIdx < segments.size(); segIdx++) {
-                        VideoSegment segment = segments.get(segIdx);
-                        publish(String.format("Segment %d/%d: %s", 
-                                            segIdx + 1, segments.size(), 
-                                            segment.getVideoFile().getName()));
-                        
-                        processedFrames = processSegmentMP4(segment, recorder, frameRate, 
-                                                          totalFrames, processedFrames, 
-                                                          brightnessMultiplier, masterDark);
-                    }
-                    
-                    publish("Finalisation...");
-                    recorder.stop();
-                    recorder.release();
-                    
-                    if (masterDark != null) {
-                        masterDark.release();
-                    }
-                    
-                    return true;
-                    
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    if (recorder != null) {
-                        try { recorder.stop(); recorder.release(); } catch (Exception ex) {}
-                    }
-                    if (masterDark != null) {
-                        try { masterDark.release(); } catch (Exception ex) {}
-                    }
-                    return false;
-                }
+        runInWorker(edtListener -> export(segments, outputFile, brightnessMultiplier, 
+                                          applyOffsetProcessing, edtListener),
+                    "Export réussi!", "Échec de l'export", listener);
+    }
+    
+    /**
+     * Exporte la vidéo en AVI sans perte de qualité (codec HuffYUV), dans un SwingWorker
+     */
+    public static void exportVideoAVI(List<VideoSegment> segments, File outputFile, 
+                                      double brightnessMultiplier, boolean applyOffsetProcessing,
+                                      ProgressListener listener) {
+        runInWorker(edtListener -> exportAVI(segments, outputFile, brightnessMultiplier, 
+                                             applyOffsetProcessing, edtListener),
+                    "Export AVI sans perte réussi!", "Échec de l'export AVI", listener);
+    }
+    
+    /**
+     * Export MP4 synchrone, sans Swing: utilisable hors de l'interface (ligne de commande).
+     * listener.onProgress est appelé depuis le thread appelant, onComplete n'est pas appelé.
+     * Sans luminosité ni calibration, les flux sont recopiés sans réencodage (StreamCopier);
+     * en H.264 seuls les GOP coupés par les bornes des segments sont réencodés.
+     * Sinon chaque frame est réencodée en H.264.
+     */
+    public static void export(List<VideoSegment> segments, File outputFile, 
+                              double brightnessMultiplier, boolean applyOffsetProcessing,
+                              ProgressListener listener) throws Exception {
+        export(segments, outputFile, brightnessMultiplier, applyOffsetProcessing,
+               Math.max(1, Runtime.getRuntime().availableProcessors() / 2), listener);
+    }
+    
+    public static void export(List<VideoSegment> segments, File outputFile,
+                              double brightnessMultiplier, boolean applyOffsetProcessing,
+                              int workers, ProgressListener listener) throws Exception {
+        export(segments, outputFile, brightnessMultiplier, applyOffsetProcessing,
+               workers, DEFAULT_CHUNK_SECONDS, listener);
+    }
+    
+    /**
+     * Export MP4 synchrone avec réencodage parallèle: les segments d'au moins deux morceaux
+     * sont découpés sur des keyframes de la source toutes les chunkSeconds environ, puis
+     * jusqu'à workers parties sont encodées simultanément, chacune par son grabber et son
+     * recorder dans un fichier intermédiaire, et les fichiers sont concaténés sans réencodage.
+     * workers = 1 encode les segments à la suite dans un seul recorder; chunkSeconds <= 0
+     * désactive le découpage.
+     */
+    public static void export(List<VideoSegment> segments, File outputFile,
+                              double brightnessMultiplier, boolean applyOffsetProcessing,
+                              int workers, double chunkSeconds, ProgressListener listener) throws Exception {
+        if (brightnessMultiplier == 1.0 && !applyOffsetProcessing) {
+            progress(listener, -1, "Copie des flux sans réencodage...");
+            if (StreamCopier.copy(segments, outputFile, "mp4", listener)) {
+                return;
             }
+            progress(listener, -1, "Flux incompatibles avec la copie: réencodage H.264");
+        }
+        
+        FFmpegFrameRecorder recorder = null;
+        Mat masterDark = null;
+        PixelKernel kernel = null;
+        
+        try {
+            VideoSegment firstSegment = segments.get(0);
+            FFmpegFrameGrabber firstGrabber = new FFmpegFrameGrabber(firstSegment.getVideoFile());
+            firstGrabber.start();
             
-            private Mat calculateMasterDark(List<VideoSegment> segments, int width, int height) {
-                try {
-                    Mat accumulator = new Mat(height, width, CV_32FC3, Scalar.all(0));
-                    int frameCount = 0;
-                    
-                    for (VideoSegment segment : segments) {
-                        if (!segment.isOffsetEnabled()) continue;
-                        
-                        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
-                        grabber.start();
-                        
-                        OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
-                        
-                        long offsetStartTimestamp = (long) (segment.getOffsetStart() * 1_000_000);
-                        long offsetEndTimestamp = (long) (segment.getOffsetEnd() * 1_000_000);
-                        
-                        grabber.setTimestamp(offsetStartTimestamp);
-                        
-                        while (true) {
-                            Frame frame = grabber.grabImage();
-                            if (frame == null) break;
-                            
-                            long timestamp = grabber.getTimestamp();
-                            if (timestamp > offsetEndTimestamp) break;
-                            
-                            Mat mat = matConverter.convert(frame);
-                            if (mat != null) {
-                                mat.convertTo(mat, CV_32FC3);
-                                add(accumulator, mat, accumulator);
-                                mat.release();
-                                frameCount++;
-                            }
-                        }
-                        
-                        grabber.stop();
-                        grabber.release();
-                        matConverter.close();
-                    }
-                    
-                    if (frameCount > 0) {
-                        // Diviser par frameCount
-                        accumulator.convertTo(accumulator, -1, 1.0 / frameCount, 0);
-                        return accumulator;
-                    }
-                    
-                    accumulator.release();
-                    return null;
-                    
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
+            int width = firstGrabber.getImageWidth();
+            int height = firstGrabber.getImageHeight();
+            double frameRate = firstGrabber.getFrameRate();
+            int audioChannels = firstGrabber.getAudioChannels();
+            int sampleRate = firstGrabber.getSampleRate();
+            firstGrabber.stop();
+            firstGrabber.release();
+            
+            progress(listener, -1, "Initialisation de l'export...");
+            
+            // Calculer le master dark si traitement offset activé
+            if (applyOffsetProcessing) {
+                progress(listener, -1, "Calcul du Master Dark...");
+                masterDark = calculateMasterDark(segments);
+                if (masterDark != null) {
+                    progress(listener, -1, "Master Dark calculé");
                 }
             }
             
-            private int processSegmentMP4(VideoSegment segment, FFmpegFrameRecorder recorder,
-                                        double frameRate, int totalFrames, int processedFrames,
-                                        double brightnessMultiplier, Mat masterDark) throws Exception {
-                FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
-                grabber.start();
-                
-                OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
-                
-                long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
-                long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
-                
-                long offsetStartTimestamp = 0;
-                long offsetEndTimestamp = 0;
+            // Dark quantifié et table de luminosité, partagés par tous les segments
+            kernel = new PixelKernel(masterDark, brightnessMultiplier);
+            
+            int totalFrames = 0;
+            for (VideoSegment segment : segments) {
+                double duration = segment.getSegmentDuration();
                 if (segment.isOffsetEnabled()) {
-                    offsetStartTimestamp = (long) (segment.getOffsetStart() * 1_000_000);
-                    offsetEndTimestamp = (long) (segment.getOffsetEnd() * 1_000_000);
+                    double offsetDuration = segment.getOffsetEnd() - segment.getOffsetStart();
+                    duration -= offsetDuration;
                 }
+                totalFrames += (int) (duration * frameRate);
+            }
+            
+            Progress progress = new Progress(totalFrames, listener);
+            
+            List<VideoSegment> parts = segments;
+            if (workers > 1 && chunkSeconds > 0) {
+                progress(listener, -1, "Découpage des segments sur les keyframes...");
+                parts = split(segments, chunkSeconds, applyOffsetProcessing);
+            }
+            
+            if (workers > 1 && parts.size() > 1) {
+                exportParallel(segments, parts, outputFile, width, height, frameRate, audioChannels, sampleRate,
+                               kernel, applyOffsetProcessing, workers, progress);
+            } else {
+                recorder = createRecorderMP4(outputFile, width, height, frameRate, audioChannels, sampleRate);
+                recorder.start();
                 
-                grabber.setTimestamp(startTimestamp);
-                
-                while (true) {
-                    Frame frame = grabber.grab();
-                    if (frame == null) break;
-                    
-                    long timestamp = grabber.getTimestamp();
-                    if (timestamp > endTimestamp) break;
+                for (int segIdx = 0; segIdx < segments.size(); segIdx++) {
+                    VideoSegment segment = segments.get(segIdx);
+                    progress(listener, -1, String.format("Segment %d/%d: %s", 
+                                        segIdx + 1, segments.size(), 
+                                        segment.getVideoFile().getName()));
                     
-                    if (segment.isOffsetEnabled() && 
-                        timestamp >= offsetStartTimestamp && 
-                        timestamp <= offsetEndTimestamp) {
-                        continue;
-                    }
-                    
-                    if (frame.image != null) {
-                        Mat mat = matConverter.convert(frame);
-                        if (mat != null) {
-                            // Soustraire master dark
-                            if (masterDark != null) {
-                                mat.convertTo(mat, CV_32FC3);
-                                subtract(mat, masterDark, mat);
-                                mat.convertTo(mat, CV_8UC3);
-                            }
-                            
-                            // Appliquer luminosité
-                            if (brightnessMultiplier != 1.0) {
-                                mat.convertTo(mat, -1, brightnessMultiplier, 0);
-                            }
-                            
-                            frame = matConverter.convert(mat);
-                            mat.release();
-                        }
-                    }
-                    
-                    recorder.record(frame);
-                    processedFrames++;
-                    
-                    if (processedFrames % 10 == 0) {
-                        int percent = (int) ((processedFrames / (double) totalFrames) * 100);
-                        publish(String.format("Progression: %d%%", percent));
-                    }
+                    encodeSegmentMP4(segment, recorder, kernel, applyOffsetProcessing, progress);
                 }
                 
-                grabber.stop();
-                grabber.release();
-                matConverter.close();
-                
-                return processedFrames;
+                progress.message(progress.utilization());
+                progress(listener, -1, "Finalisation...");
+                recorder.stop();
+                recorder.release();
             }
             
-            @Override
-            protected void process(List<String> chunks) {
-                if (listener != null && !chunks.isEmpty()) {
-                    String lastMessage = chunks.get(chunks.size() - 1);
-                    if (lastMessage.contains("%")) {
-                        try {
-                            int percent = Integer.parseInt(
-                                lastMessage.replaceAll("[^0-9]", ""));
-                            listener.onProgress(percent, lastMessage);
-                        } catch (NumberFormatException e) {
-                            listener.onProgress(0, lastMessage);
-                        }
-                    } else {
-                        listener.onProgress(-1, lastMessage);
-                    }
+            kernel.close();
+            if (masterDark != null) {
+                masterDark.release();
+            }
+        
+        } catch (Exception e) {
+            if (recorder != null) {
+                try { recorder.stop(); recorder.release(); } catch (Exception ex) {}
+            }
+            if (kernel != null) {
+                kernel.close();
+            }
+            if (masterDark != null) {
+                try { masterDark.release(); } catch (Exception ex) {}
+            }
+            throw e;
+        }
+    }
+    
+    private static FFmpegFrameRecorder createRecorderMP4(File outputFile, int width, int height, double frameRate,
+                                                         int audioChannels, int sampleRate) {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile, width, height, audioChannels);
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setFormat("mp4");
+        recorder.setFrameRate(frameRate);
+        recorder.setVideoBitrate(8000000);
+        // GOP fermés: chaque partie d'un export parallèle se décode sans la précédente
+        recorder.setVideoOption("flags", "+cgop");
+        
+        if (audioChannels > 0) {
+            configureAudio(recorder, sampleRate);
+        }
+        return recorder;
+    }
+    
+    private static void configureAudio(FFmpegFrameRecorder recorder, int sampleRate) {
+        recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+        recorder.setAudioBitrate(192000);
+        recorder.setSampleRate(sampleRate);
+    }
+    
+    /**
+     * Découpe les segments d'au moins deux morceaux en parties commençant chacune sur une
+     * keyframe de la source, la première à au moins chunkSeconds du début et la dernière
+     * longue d'au moins un demi-morceau. Chaque partie s'arrête juste avant la keyframe
+     * de la suivante: les frames se suivent sans doublon ni trou.
+     */
+    private static List<VideoSegment> split(List<VideoSegment> segments, double chunkSeconds,
+                                            boolean applyOffsetProcessing) throws Exception {
+        List<VideoSegment> parts = new ArrayList<>();
+        long chunkUs = (long) (chunkSeconds * 1_000_000);
+        
+        for (VideoSegment segment : segments) {
+            if (segment.getSegmentDuration() < 2 * chunkSeconds) {
+                parts.add(segment);
+                continue;
+            }
+            
+            long startUs = (long) (segment.getStartTime() * 1_000_000);
+            long endUs = (long) (segment.getEndTime() * 1_000_000);
+            long[] keyframes = KeyframeIndex.scan(segment.getVideoFile(), startUs + chunkUs, endUs - chunkUs / 2);
+            
+            List<Long> cuts = new ArrayList<>();
+            long next = startUs + chunkUs;
+            for (long keyframe : keyframes) {
+                if (keyframe >= next) {
+                    cuts.add(keyframe);
+                    next = keyframe + chunkUs;
                 }
             }
+            if (cuts.isEmpty()) {
+                parts.add(segment);
+                continue;
+            }
             
-            @Override
-            protected void done() {
-                try {
-                    boolean success = get();
-                    if (listener != null) {
-                        if (success) {
-                            listener.onComplete(true, "Export réussi!");
-                        } else {
-                            listener.onComplete(false, "Échec de l'export");
-                        }
-                    }
-                } catch (Exception e) {
-                    if (listener != null) {
-                        listener.onComplete(false, "Erreur: " + e.getMessage());
+            if (applyOffsetProcessing && segment.isFlatEnabled()) {
+                // Flat calculé une seule fois ici, relu de la bibliothèque par chaque partie
+                Mat flat = new CalibrationLibrary().loadFlat(segment,
+                    Runtime.getRuntime().availableProcessors());
+                if (flat != null) {
+                    flat.release();
+                }
+            }
+            
+            for (int i = 0; i <= cuts.size(); i++) {
+                double start = i == 0 ? segment.getStartTime() : cuts.get(i - 1) / 1e6;
+                double end = i == cuts.size() ? segment.getEndTime() : (cuts.get(i) - 1) / 1e6;
+                parts.add(subSegment(segment, start, end));
+            }
+        }
+        return parts;
+    }
+    
+    /**
+     * Copie du segment restreinte à [start, end], réglages de calibration conservés
+     */
+    private static VideoSegment subSegment(VideoSegment segment, double start, double end) {
+        VideoSegment part = new VideoSegment(segment.getVideoFile(), segment.getDuration());
+        part.setEndTime(end);
+        part.setStartTime(start);
+        part.setOffsetStart(segment.getOffsetStart());
+        part.setOffsetEnd(segment.getOffsetEnd());
+        part.setOffsetEnabled(segment.isOffsetEnabled());
+        part.setBiasStart(segment.getBiasStart());
+        part.setBiasEnd(segment.getBiasEnd());
+        part.setBiasEnabled(segment.isBiasEnabled());
+        part.setFlatFile(segment.getFlatFile());
+        part.setFlatStart(segment.getFlatStart());
+        part.setFlatEnd(segment.getFlatEnd());
+        part.setFlatEnabled(segment.isFlatEnabled());
+        return part;
+    }
+    
+    /**
+     * Encode chaque partie dans son propre fichier MP4 (même dossier que la sortie) sur un pool
+     * borné, puis concatène les fichiers dans l'ordre de la timeline par copie des paquets.
+     * Les paramètres d'encodage étant identiques et chaque fichier commençant par une IDR,
+     * les flux se raccordent sans réencodage, chacun à la fin du précédent.
+     * Les parties sont vidéo seule: un encodeur AAC par partie ajouterait à chaque jonction
+     * son silence d'amorçage et le remplissage de sa dernière trame. L'audio de toute la
+     * timeline est encodé d'un seul tenant par une tâche du pool, et recopié à la concaténation.
+     * Il suit les segments d'origine et non les morceaux: un seek par coupure de morceau
+     * ferait perdre ou doubler une trame audio à chaque raccord.
+     */
+    private static void exportParallel(List<VideoSegment> segments, List<VideoSegment> chunks,
+                                       File outputFile, int width, int height,
+                                       double frameRate, int audioChannels, int sampleRate,
+                                       PixelKernel kernel, boolean applyOffsetProcessing,
+                                       int workers, Progress progress) throws Exception {
+        int poolSize = Math.min(workers, chunks.size());
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        List<File> parts = new ArrayList<>();
+        List<Future<?>> tasks = new ArrayList<>();
+        File directory = outputFile.getAbsoluteFile().getParentFile();
+        
+        File audioFile = null;
+        
+        try {
+            progress.message(String.format("Encodage de %d parties en parallèle (%d à la fois)...",
+                                           chunks.size(), poolSize));
+            
+            if (audioChannels > 0) {
+                File audio = File.createTempFile("export-audio", ".mp4", directory);
+                audioFile = audio;
+                tasks.add(pool.submit(() -> {
+                    encodeAudio(segments, audio, audioChannels, sampleRate);
+                    return null;
+                }));
+            }
+            
+            for (VideoSegment chunk : chunks) {
+                File part = File.createTempFile("export-part", ".mp4", directory);
+                parts.add(part);
+                tasks.add(pool.submit(() -> {
+                    FFmpegFrameRecorder recorder = createRecorderMP4(part, width, height, frameRate,
+                                                                     0, sampleRate);
+                    try {
+                        recorder.start();
+                        encodeSegmentMP4(chunk, recorder, kernel, applyOffsetProcessing, progress);
+                        recorder.stop();
+                    } finally {
+                        recorder.release();
                     }
+                    return null;
+                }));
+            }
+            
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
                 }
             }
-        };
+            
+            progress.message(progress.utilization());
+            progress.message("Concaténation des segments...");
+            if (!StreamCopier.concat(parts, audioFile, outputFile, "mp4", progress.listener)) {
+                throw new IOException("Concaténation des segments encodés impossible");
+            }
         
-        worker.execute();
+        } finally {
+            pool.shutdownNow();
+            for (File part : parts) {
+                part.delete();
+            }
+            if (audioFile != null) {
+                audioFile.delete();
+            }
+        }
     }
     
     /**
-     * Exporte la vidéo en AVI sans perte de qualité (codec FFV1)
+     * Audio des segments, plages d'offset exclues comme pour l'image, encodé à la suite
+     * par un seul encodeur AAC dans audioFile (MP4 audio seul)
      */
-    public static void exportVideoAVI(List<VideoSegment> segments, File outputFile, 
-                                      double brightnessMultiplier, boolean applyOffsetProcessing,
-                                      ProgressListener listener) {
-        SwingWorker<Boolean, String> worker = new SwingWorker<>() {
-            @Override
-            protected Boolean doInBackground() throws Exception {
-                FFmpegFrameRecorder recorder = null;
-                Java2DFrameConverter converter = new Java2DFrameConverter();
-                Mat masterDark = null;
+    private static void encodeAudio(List<VideoSegment> segments, File audioFile, int audioChannels,
+                                    int sampleRate) throws Exception {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(audioFile, audioChannels);
+        recorder.setFormat("mp4");
+        configureAudio(recorder, sampleRate);
+        
+        try {
+            recorder.start();
+            for (VideoSegment segment : segments) {
+                long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
+                long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
                 
+                FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
                 try {
-                    VideoSegment firstSegment = segments.get(0);
-                    FFmpegFrameGrabber firstGrabber = new FFmpegFrameGrabber(firstSegment.getVideoFile());
-                    firstGrabber.start();
-                    
-                    int width = firstGrabber.getImageWidth();
-                    int height = firstGrabber.getImageHeight();
-                    double frameRate = firstGrabber.getFrameRate();
-                    int audioChannels = firstGrabber.getAudioChannels();
-                    int sampleRate = firstGrabber.getSampleRate();
-                    
-                    publish("Initialisation de l'export AVI sans perte...");
-                    
-                    // IMPORTANT: Traitement offset/luminosité désactivé pour AVI
-                    // pour éviter les crashs mémoire avec conversion Mat
-                    if (applyOffsetProcessing) {
-                        publish("Note: Traitement offset ignoré pour export AVI (stabilité)");
-                    }
-                    if (brightnessMultiplier != 1.0) {
-                        publish("Note: Luminosité ignorée pour export AVI (stabilité)");
-                    }
-                    
-                    recorder = new FFmpegFrameRecorder(outputFile, width, height, audioChannels);
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_HUFFYUV);
-                    recorder.setFormat("avi");
-                    recorder.setFrameRate(frameRate);
-                    recorder.setPixelFormat(org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV422P);
-                    
-                    if (audioChannels > 0) {
-                        recorder.setAudioCodec(avcodec.AV_CODEC_ID_PCM_S16LE);
-                        recorder.setSampleRate(sampleRate);
-                    }
-                    
-                    recorder.start();
-                    firstGrabber.stop();
-                    
-                    publish("Codec: HuffYUV YUV422P (lossless), Audio: PCM");
-                    
-                    int totalFrames = 0;
-                    for (VideoSegment segment : segments) {
-                        double duration = segment.getSegmentDuration();
-                        if (segment.isOffsetEnabled()) {
-                            double offsetDuration = segment.getOffsetEnd() - segment.getOffsetStart();
-                            duration -= offsetDuration;
-                        }
-                        totalFrames += (int) (duration * frameRate);
+                    grabber.start();
+                    if (grabber.getAudioChannels() <= 0) continue;
+                    // Pas de seek au début du fichier: la première trame AAC y perdrait
+                    // la précédente, nécessaire à son décodage (environ 450 échantillons muets)
+                    if (startTimestamp > 0) {
+                        grabber.setTimestamp(startTimestamp);
                     }
                     
-                    int processedFrames = 0;
-                    
-                    for (int segIdx = 0; segIdx < segments.size(); segIdx++) {
-                        VideoSegment segment = segments.get(segIdx);
-                        publish(String.format("Segment %d/%d: %s", 
-                                            segIdx + 1, segments.size(), 
-                                            segment.getVideoFile().getName()));
+                    Frame frame;
+                    while ((frame = grabber.grabSamples()) != null) {
+                        long timestamp = grabber.getTimestamp();
+                        if (timestamp > endTimestamp) break;
                         
-                        processedFrames = processSegmentAVI(segment, recorder, frameRate, 
-                                                          totalFrames, processedFrames, 
-                                                          1.0, null); // Pas de traitement pour AVI
-                    }
-                    
-                    publish("Finalisation de la vidéo AVI...");
-                    recorder.stop();
-                    recorder.release();
-                    converter.close();
-                    
-                    if (masterDark != null) {
-                        masterDark.release();
-                    }
-                    
-                    return true;
-                    
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    if (recorder != null) {
-                        try { recorder.release(); } catch (Exception ex) {}
-                    }
-                    if (masterDark != null) {
-                        try { masterDark.release(); } catch (Exception ex) {}
+                        if (segment.isOffsetEnabled()
+                                && timestamp >= (long) (segment.getOffsetStart() * 1_000_000)
+                                && timestamp <= (long) (segment.getOffsetEnd() * 1_000_000)) {
+                            continue;
+                        }
+                        recorder.record(frame);
                     }
-                    throw e;
                 } finally {
-                    converter.close();
+                    try {
+                        grabber.stop();
+                        grabber.release();
+                    } catch (Exception ex) {}
                 }
             }
+            recorder.stop();
+        } finally {
+            recorder.release();
+        }
+    }
+    
+    /**
+     * Décode, calibre et réencode un segment dans recorder; le flat propre au segment
+     * est chargé de la bibliothèque de calibration
+     */
+    private static void encodeSegmentMP4(VideoSegment segment, FFmpegFrameRecorder recorder, PixelKernel kernel,
+                                         boolean applyOffsetProcessing, Progress progress) throws Exception {
+        Mat masterFlat = null;
+        if (applyOffsetProcessing && segment.isFlatEnabled()) {
+            masterFlat = new CalibrationLibrary().loadFlat(segment, 
+                Runtime.getRuntime().availableProcessors());
+        }
+        
+        try {
+            processSegmentMP4(segment, recorder, kernel, masterFlat, progress);
+        } finally {
+            if (masterFlat != null) {
+                masterFlat.release();
+            }
+        }
+    }
+    
+    /**
+     * Décode, calibre et réencode un segment sur trois threads reliés par des files bornées:
+     * décodage (copie de chaque image dans une frame du pool), traitement (dark, flat et
+     * luminosité sur place) et encodage. Un seul thread par étage: l'ordre des frames et
+     * l'entrelacement de l'audio sont conservés. Les images encodées reviennent au pool,
+     * au plus 2 * PIPELINE_DEPTH + 3 sont allouées par segment.
+     */
+    private static void processSegmentMP4(VideoSegment segment, FFmpegFrameRecorder recorder,
+                                          PixelKernel kernel, Mat masterFlat,
+                                          Progress progress) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
+        grabber.start();
+        
+        FramePool pool = new FramePool(2 * PIPELINE_DEPTH + 3);
+        BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        BlockingQueue<Frame> processed = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        long[] busy = new long[3];
+        
+        ExecutorService stages = Executors.newFixedThreadPool(3);
+        CompletionService<Void> completion = new ExecutorCompletionService<>(stages);
+        long started = System.nanoTime();
+        
+        try {
+            completion.submit(() -> {
+                busy[0] = decodeStage(segment, grabber, recorder.getAudioChannels() > 0, pool, decoded);
+                return null;
+            });
+            completion.submit(() -> {
+                busy[1] = processStage(decoded, processed, kernel, masterFlat);
+                return null;
+            });
+            completion.submit(() -> {
+                busy[2] = encodeStage(processed, recorder, pool, progress);
+                return null;
+            });
             
-            private Mat calculateMasterDark(List<VideoSegment> segments, int width, int height) {
+            // Le premier étage en échec arrête les deux autres (finally)
+            for (int i = 0; i < 3; i++) {
                 try {
-                    Mat accumulator = new Mat(height, width, CV_32FC3, Scalar.all(0));
-                    int frameCount = 0;
-                    
-                    for (VideoSegment segment : segments) {
-                        if (!segment.isOffsetEnabled()) continue;
-                        
-                        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
-                        grabber.start();
-                        
-                        OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
-                        
-                        long offsetStartTimestamp = (long) (segment.getOffsetStart() * 1_000_000);
-                        long offsetEndTimestamp = (long) (segment.getOffsetEnd() * 1_000_000);
-                        
-                        grabber.setTimestamp(offsetStartTimestamp);
-                        
-                        while (true) {
-                            Frame frame = grabber.grabImage();
-                            if (frame == null) break;
-                            
-                            long timestamp = grabber.getTimestamp();
-                            if (timestamp > offsetEndTimestamp) break;
-                            
-                            Mat mat = matConverter.convert(frame);
-                            if (mat != null) {
-                                mat.convertTo(mat, CV_32FC3);
-                                add(accumulator, mat, accumulator);
-                                mat.release();
-                                frameCount++;
-                            }
-                        }
-                        
-                        grabber.stop();
-                        grabber.release();
-                        matConverter.close();
-                    }
-                    
-                    if (frameCount > 0) {
-                        // Diviser par frameCount
-                        accumulator.convertTo(accumulator, -1, 1.0 / frameCount, 0);
-                        return accumulator;
-                    }
-                    
-                    accumulator.release();
-                    return null;
-                    
-                } catch (Exception e) {
-                    return null;
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
                 }
             }
+            progress.stageTimes(busy[0], busy[1], busy[2], System.nanoTime() - started);
+        
+        } finally {
+            stages.shutdownNow();
+            stages.awaitTermination(1, TimeUnit.MINUTES);
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception ex) {}
+            pool.close();
+        }
+    }
+    
+    /**
+     * Étage de décodage: images copiées dans des frames du pool (le grabber réutilise
+     * son tampon), audio cloné, ou ni décodé ni transmis pour un recorder vidéo seule.
+     * Retourne le temps passé hors attente (ns).
+     */
+    private static long decodeStage(VideoSegment segment, FFmpegFrameGrabber grabber, boolean audio,
+                                    FramePool pool, BlockingQueue<Frame> decoded) throws Exception {
+        long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
+        long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
+        
+        long offsetStartTimestamp = 0;
+        long offsetEndTimestamp = 0;
+        if (segment.isOffsetEnabled()) {
+            offsetStartTimestamp = (long) (segment.getOffsetStart() * 1_000_000);
+            offsetEndTimestamp = (long) (segment.getOffsetEnd() * 1_000_000);
+        }
+        
+        long busy = 0;
+        long resumed = System.nanoTime();
+        
+        try (OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat()) {
+            grabber.setTimestamp(startTimestamp);
             
-            private int processSegmentAVI(VideoSegment segment, FFmpegFrameRecorder recorder,
-                                        double frameRate, int totalFrames, int processedFrames,
-                                        double brightnessMultiplier, Mat masterDark) throws Exception {
-                FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
-                grabber.start();
+            while (true) {
+                Frame frame = audio ? grabber.grab() : grabber.grabImage();
+                if (frame == null) break;
                 
-                long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
-                long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
+                long timestamp = grabber.getTimestamp();
+                if (timestamp > endTimestamp) {
+                    // Seule une image au-delà de la fin arrête: l'audio entrelacé en avance
+                    // ne doit pas faire perdre la dernière image de la partie
+                    if (frame.image != null) break;
+                    continue;
+                }
                 
-                long offsetStartTimestamp = 0;
-                long offsetEndTimestamp = 0;
-                if (segment.isOffsetEnabled()) {
-                    offsetStartTimestamp = (long) (segment.getOffsetStart() * 1_000_000);
-                    offsetEndTimestamp = (long) (segment.getOffsetEnd() * 1_000_000);
+                if (segment.isOffsetEnabled() && 
+                    timestamp >= offsetStartTimestamp && 
+                    timestamp <= offsetEndTimestamp) {
+                    continue;
                 }
                 
-                grabber.setTimestamp(startTimestamp);
+                Frame copy;
+                if (frame.image != null) {
+                    Mat source = matConverter.convert(frame);
+                    busy += System.nanoTime() - resumed;
+                    copy = pool.take(source);
+                    resumed = System.nanoTime();
+                    source.copyTo(pool.mat(copy));
+                    copy.timestamp = frame.timestamp;
+                } else {
+                    copy = frame.clone();
+                }
                 
-                // IMPORTANT: Pour AVI lossless, on ne fait AUCUN traitement Mat
-                // On passe les frames directement pour éviter les crashs
+                busy += System.nanoTime() - resumed;
+                decoded.put(copy);
+                resumed = System.nanoTime();
+            }
+        }
+        
+        busy += System.nanoTime() - resumed;
+        decoded.put(END_OF_SEGMENT);
+        return busy;
+    }
+    
+    /**
+     * Étage de traitement: calibration et luminosité appliquées par le PixelKernel dans
+     * le tampon de la frame, avec une Mat de travail réutilisée
+     */
+    private static long processStage(BlockingQueue<Frame> decoded, BlockingQueue<Frame> processed,
+                                     PixelKernel kernel, Mat masterFlat) throws Exception {
+        long busy = 0;
+        boolean identity = kernel.isIdentity() && masterFlat == null;
+        Mat calibrated = new Mat();
+        
+        try (OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat()) {
+            while (true) {
+                Frame frame = decoded.take();
+                long resumed = System.nanoTime();
                 
-                while (true) {
-                    Frame frame = grabber.grab();
-                    if (frame == null) break;
-                    
-                    long timestamp = grabber.getTimestamp();
-                    if (timestamp > endTimestamp) break;
-                    
-                    if (segment.isOffsetEnabled() && 
-                        timestamp >= offsetStartTimestamp && 
-                        timestamp <= offsetEndTimestamp) {
-                        continue;
-                    }
-                    
-                    // Passer la frame directement SANS conversion Mat
-                    // pour éviter les crashs de mémoire
-                    recorder.record(frame);
-                    processedFrames++;
-                    
-                    if (processedFrames % 10 == 0) {
-                        int percent = (int) ((processedFrames / (double) totalFrames) * 100);
-                        publish(String.format("Progression: %d%%", percent));
-                    }
+                if (frame.image != null && !identity) {
+                    kernel.apply(matConverter.convert(frame), masterFlat, calibrated);
                 }
                 
-                grabber.stop();
-                grabber.release();
+                busy += System.nanoTime() - resumed;
+                processed.put(frame);
+                if (frame == END_OF_SEGMENT) {
+                    return busy;
+                }
+            }
+        } finally {
+            calibrated.release();
+        }
+    }
+    
+    /**
+     * Étage d'encodage: frames enregistrées dans l'ordre, images rendues au pool
+     */
+    private static long encodeStage(BlockingQueue<Frame> processed, FFmpegFrameRecorder recorder,
+                                    FramePool pool, Progress progress) throws Exception {
+        long busy = 0;
+        
+        while (true) {
+            Frame frame = processed.take();
+            if (frame == END_OF_SEGMENT) {
+                return busy;
+            }
+            
+            long resumed = System.nanoTime();
+            recorder.record(frame);
+            busy += System.nanoTime() - resumed;
+            
+            if (frame.image != null) {
+                pool.give(frame);
+                progress.frameDone();
+            }
+        }
+    }
+    
+    /**
+     * Images natives recyclées entre le décodage et l'encodage: au plus capacity allouées,
+     * take bloque ensuite jusqu'au retour d'une image (contre-pression sur le décodeur)
+     */
+    private static class FramePool implements AutoCloseable {
+        final int capacity;
+        final BlockingQueue<Frame> free;
+        final List<Mat> allocated = new ArrayList<>();
+        final OpenCVFrameConverter.ToMat matConverter = new OpenCVFrameConverter.ToMat();
+        
+        FramePool(int capacity) {
+            this.capacity = capacity;
+            this.free = new ArrayBlockingQueue<>(capacity);
+        }
+        
+        /**
+         * Frame libre aux dimensions et au type de like (thread de décodage uniquement)
+         */
+        Frame take(Mat like) throws InterruptedException {
+            Frame frame = free.poll();
+            if (frame == null && allocated.size() < capacity) {
+                Mat mat = new Mat(like.rows(), like.cols(), like.type());
+                allocated.add(mat);
+                return matConverter.convert(mat);
+            }
+            return frame != null ? frame : free.take();
+        }
+        
+        /**
+         * Mat partageant le tampon d'une frame du pool
+         */
+        Mat mat(Frame frame) {
+            return (Mat) frame.opaque;
+        }
+        
+        void give(Frame frame) {
+            free.offer(frame);
+        }
+        
+        @Override
+        public void close() {
+            for (Mat mat : allocated) {
+                mat.release();
+            }
+            matConverter.close();
+        }
+    }
+    
+    /**
+     * Frames encodées par l'export MP4, partagées par les encodeurs parallèles
+     */
+    private static class Progress {
+        final int totalFrames;
+        final ProgressListener listener;
+        final AtomicInteger processedFrames = new AtomicInteger();
+        final AtomicLongArray stageNanos = new AtomicLongArray(4);
+        
+        Progress(int totalFrames, ProgressListener listener) {
+            this.totalFrames = Math.max(1, totalFrames);
+            this.listener = listener;
+        }
+        
+        void frameDone() {
+            int processed = processedFrames.incrementAndGet();
+            if (processed % 10 == 0) {
+                int percent = (int) ((processed / (double) totalFrames) * 100);
+                progress(listener, percent, String.format("Progression: %d%%", percent));
+            }
+        }
+        
+        void message(String message) {
+            progress(listener, -1, message);
+        }
+        
+        /**
+         * Temps d'activité des étages décodage, traitement, encodage pour un segment de durée elapsed (ns)
+         */
+        void stageTimes(long decode, long process, long encode, long elapsed) {
+            stageNanos.addAndGet(0, decode);
+            stageNanos.addAndGet(1, process);
+            stageNanos.addAndGet(2, encode);
+            stageNanos.addAndGet(3, elapsed);
+        }
+        
+        /**
+         * Occupation de chaque étage sur la durée des pipelines; le plus occupé limite le débit
+         */
+        String utilization() {
+            String[] names = {"décodage", "traitement", "encodage"};
+            long elapsed = Math.max(1, stageNanos.get(3));
+            int[] percents = new int[3];
+            int bottleneck = 0;
+            for (int i = 0; i < 3; i++) {
+                percents[i] = (int) (stageNanos.get(i) * 100 / elapsed);
+                if (percents[i] > percents[bottleneck]) {
+                    bottleneck = i;
+                }
+            }
+            return String.format("Occupation des étages: décodage %d%%, traitement %d%%, encodage %d%% (limitant: %s)",
+                                 percents[0], percents[1], percents[2], names[bottleneck]);
+        }
+    }
+    
+    /**
+     * Export AVI sans perte synchrone, sans Swing (voir export)
+     */
+    public static void exportAVI(List<VideoSegment> segments, File outputFile, 
+                                 double brightnessMultiplier, boolean applyOffsetProcessing,
+                                 ProgressListener listener) throws Exception {
+        FFmpegFrameRecorder recorder = null;
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+        Mat masterDark = null;
+        
+        try {
+            VideoSegment firstSegment = segments.get(0);
+            FFmpegFrameGrabber firstGrabber = new FFmpegFrameGrabber(firstSegment.getVideoFile());
+            firstGrabber.start();
+            
+            int width = firstGrabber.getImageWidth();
+            int height = firstGrabber.getImageHeight();
+            double frameRate = firstGrabber.getFrameRate();
+            int audioChannels = firstGrabber.getAudioChannels();
+            int sampleRate = firstGrabber.getSampleRate();
+            
+            progress(listener, -1, "Initialisation de l'export AVI sans perte...");
+            
+            // IMPORTANT: Traitement offset/luminosité désactivé pour AVI
+            // pour éviter les crashs mémoire avec conversion Mat
+            if (applyOffsetProcessing) {
+                progress(listener, -1, "Note: Traitement offset ignoré pour export AVI (stabilité)");
+            }
+            if (brightnessMultiplier != 1.0) {
+                progress(listener, -1, "Note: Luminosité ignorée pour export AVI (stabilité)");
+            }
+            
+            recorder = new FFmpegFrameRecorder(outputFile, width, height, audioChannels);
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_HUFFYUV);
+            recorder.setFormat("avi");
+            recorder.setFrameRate(frameRate);
+            recorder.setPixelFormat(org.bytedeco.ffmpeg.global.avutil.AV_PIX_FMT_YUV422P);
+            
+            if (audioChannels > 0) {
+                recorder.setAudioCodec(avcodec.AV_CODEC_ID_PCM_S16LE);
+                recorder.setSampleRate(sampleRate);
+            }
+            
+            recorder.start();
+            firstGrabber.stop();
+            
+            progress(listener, -1, "Codec: HuffYUV YUV422P (lossless), Audio: PCM");
+            
+            int totalFrames = 0;
+            for (VideoSegment segment : segments) {
+                double duration = segment.getSegmentDuration();
+                if (segment.isOffsetEnabled()) {
+                    double offsetDuration = segment.getOffsetEnd() - segment.getOffsetStart();
+                    duration -= offsetDuration;
+                }
+                totalFrames += (int) (duration * frameRate);
+            }
+            
+            int processedFrames = 0;
+            
+            for (int segIdx = 0; segIdx < segments.size(); segIdx++) {
+                VideoSegment segment = segments.get(segIdx);
+                progress(listener, -1, String.format("Segment %d/%d: %s", 
+                                    segIdx + 1, segments.size(), 
+                                    segment.getVideoFile().getName()));
                 
-                return processedFrames;
+                processedFrames = processSegmentAVI(segment, recorder, frameRate, 
+                                                  totalFrames, processedFrames, 
+                                                  1.0, null, listener); // Pas de traitement pour AVI
+            }
+            
+            progress(listener, -1, "Finalisation de la vidéo AVI...");
+            recorder.stop();
+            recorder.release();
+            converter.close();
+            
+            if (masterDark != null) {
+                masterDark.release();
+            }
+        
+        } catch (Exception e) {
+            if (recorder != null) {
+                try { recorder.release(); } catch (Exception ex) {}
+            }
+            if (masterDark != null) {
+                try { masterDark.release(); } catch (Exception ex) {}
+            }
+            throw e;
+        } finally {
+            converter.close();
+        }
+    }
+    
+    private static int processSegmentAVI(VideoSegment segment, FFmpegFrameRecorder recorder,
+                                         double frameRate, int totalFrames, int processedFrames,
+                                         double brightnessMultiplier, Mat masterDark,
+                                         ProgressListener listener) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment.getVideoFile());
+        grabber.start();
+        
+        long startTimestamp = (long) (segment.getStartTime() * 1_000_000);
+        long endTimestamp = (long) (segment.getEndTime() * 1_000_000);
+        
+        long offsetStartTimestamp = 0;
+        long offsetEndTimestamp = 0;
+        if (segment.isOffsetEnabled()) {
+            offsetStartTimestamp = (long) (segment.getOffsetStart() * 1_000_000);
+            offsetEndTimestamp = (long) (segment.getOffsetEnd() * 1_000_000);
+        }
+        
+        grabber.setTimestamp(startTimestamp);
+        
+        // IMPORTANT: Pour AVI lossless, on ne fait AUCUN traitement Mat
+        // On passe les frames directement pour éviter les crashs
+        
+        while (true) {
+            Frame frame = grabber.grab();
+            if (frame == null) break;
+            
+            long timestamp = grabber.getTimestamp();
+            if (timestamp > endTimestamp) break;
+            
+            if (segment.isOffsetEnabled() && 
+                timestamp >= offsetStartTimestamp && 
+                timestamp <= offsetEndTimestamp) {
+                continue;
             }
             
+            // Passer la frame directement SANS conversion Mat
+            // pour éviter les crashs de mémoire
+            recorder.record(frame);
+            processedFrames++;
+            
+            if (processedFrames % 10 == 0) {
+                int percent = (int) ((processedFrames / (double) totalFrames) * 100);
+                progress(listener, percent, String.format("Progression: %d%%", percent));
+            }
+        }
+        
+        grabber.stop();
+        grabber.release();
+        
+        return processedFrames;
+    }
+    
+    /**
+     * Tâche d'export synchrone, exécutée par runInWorker
+     */
+    private interface ExportTask {
+        void run(ProgressListener listener) throws Exception;
+    }
+    
+    private static void runInWorker(ExportTask task, String successMessage, String failureMessage,
+                                    ProgressListener listener) {
+        SwingWorker<Void, Void> worker = new SwingWorker<>() {
             @Override
-            protected void process(List<String> chunks) {
-                if (listener != null && !chunks.isEmpty()) {
-                    String lastMessage = chunks.get(chunks.size() - 1);
-                    if (lastMessage.contains("%")) {
-                        try {
-                            int percent = Integer.parseInt(
-                                lastMessage.replaceAll("[^0-9]", ""));
-                            listener.onProgress(percent, lastMessage);
-                        } catch (NumberFormatException e) {
-                            listener.onProgress(0, lastMessage);
-                        }
-                    } else {
-                        listener.onProgress(-1, lastMessage);
+            protected Void doInBackground() throws Exception {
+                task.run(listener == null ? null : new ProgressListener() {
+                    @Override
+                    public void onProgress(int percent, String message) {
+                        SwingUtilities.invokeLater(() -> listener.onProgress(percent, message));
                     }
-                }
+                    
+                    @Override
+                    public void onComplete(boolean success, String message) {
+                        // Transmis par done()
+                    }
+                });
+                return null;
             }
             
             @Override
             protected void done() {
                 try {
-                    boolean success = get();
+                    get();
                     if (listener != null) {
-                        if (success) {
-                            listener.onComplete(true, "Export AVI sans perte réussi!");
-                        } else {
-                            listener.onComplete(false, "Échec de l'export AVI");
-                        }
+                        listener.onComplete(true, successMessage);
                     }
                 } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
                     if (listener != null) {
-                        listener.onComplete(false, "Erreur: " + e.getMessage());
+                        listener.onComplete(false, failureMessage + ": " + cause.getMessage());
                     }
                 }
             }
@@ -517,4 +911,36 @@ public class VideoExporter {
         
         worker.execute();
     }
+    
+    private static void progress(ProgressListener listener, int percent, String message) {
+        if (listener != null) {
+            listener.onProgress(percent, message);
+        }
+    }
+    
+    /**
+     * Master dark commun à tous les segments avec offset: moyenne des masters
+     * de la bibliothèque de calibration, pondérée par leur nombre de frames
+     */
+    private static Mat calculateMasterDark(List<VideoSegment> segments) {
+        CalibrationLibrary library = new CalibrationLibrary();
+        List<CalibrationLibrary.Master> masters = new ArrayList<>();
+        
+        try {
+            for (VideoSegment segment : segments) {
+                masters.add(library.loadDark(segment, Runtime.getRuntime().availableProcessors()));
+            }
+            return CalibrationLibrary.combine(masters);
+        
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            for (CalibrationLibrary.Master master : masters) {
+                if (master != null) {
+                    master.release();
+                }
+            }
+        }
+    }
 }
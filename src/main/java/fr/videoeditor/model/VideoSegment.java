@@ -18,13 +18,19 @@ public class VideoSegment {
     private double offsetStart;  // début offset pour dark frames
     private double offsetEnd;    // fin offset pour dark frames
     private boolean offsetEnabled;
+    private double biasStart;    // début des frames de bias (même fichier)
+    private double biasEnd;
+    private boolean biasEnabled;
+    private File flatFile;       // vidéo des flats (null = même fichier)
+    private double flatStart;
+    private double flatEnd;
+    private boolean flatEnabled;
     
     public VideoSegment(File videoFile, double duration) {
         this.videoFile = videoFile;
         this.startTime = 0;
         this.endTime = duration;
         this.duration = duration;
-        this.color = generateRandomColor();
         this.stackingEnabled = false;
         this.offsetEnabled = false;
         this.offsetStart = 0;
@@ -72,7 +78,14 @@ public class VideoSegment {
         return endTime - startTime;
     }
     
+    /**
+     * Couleur d'affichage dans la timeline, tirée au premier appel
+     * (aucune classe AWT chargée pour un segment traité sans interface)
+     */
     public Color getColor() {
+        if (color == null) {
+            color = generateRandomColor();
+        }
         return color;
     }
     
@@ -124,6 +137,65 @@ public class VideoSegment {
         this.offsetEnabled = enabled;
     }
     
+    public double getBiasStart() {
+        return biasStart;
+    }
+    
+    public void setBiasStart(double biasStart) {
+        this.biasStart = Math.max(0, Math.min(biasStart, duration));
+    }
+    
+    public double getBiasEnd() {
+        return biasEnd;
+    }
+    
+    public void setBiasEnd(double biasEnd) {
+        this.biasEnd = Math.max(0, Math.min(biasEnd, duration));
+    }
+    
+    public boolean isBiasEnabled() {
+        return biasEnabled;
+    }
+    
+    public void setBiasEnabled(boolean enabled) {
+        this.biasEnabled = enabled;
+    }
+    
+    /**
+     * Vidéo contenant les flats; le fichier du segment si aucun n'est défini
+     */
+    public File getFlatFile() {
+        return flatFile != null ? flatFile : videoFile;
+    }
+    
+    public void setFlatFile(File flatFile) {
+        this.flatFile = flatFile;
+    }
+    
+    public double getFlatStart() {
+        return flatStart;
+    }
+    
+    public void setFlatStart(double flatStart) {
+        this.flatStart = Math.max(0, flatStart);
+    }
+    
+    public double getFlatEnd() {
+        return flatEnd;
+    }
+    
+    public void setFlatEnd(double flatEnd) {
+        this.flatEnd = Math.max(0, flatEnd);
+    }
+    
+    public boolean isFlatEnabled() {
+        return flatEnabled;
+    }
+    
+    public void setFlatEnabled(boolean enabled) {
+        this.flatEnabled = enabled;
+    }
+    
     @Override
     public String toString() {
         return videoFile.getName() + " [" + 
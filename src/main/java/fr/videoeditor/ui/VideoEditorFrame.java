@@ -2,8 +2,10 @@ package fr.videoeditor.ui;
 
 import com.formdev.flatlaf.FlatDarkLaf;
 import fr.videoeditor.export.VideoExporter;
+import fr.videoeditor.export.ExtractionOptions;
 import fr.videoeditor.export.FrameExtractor;
 import fr.videoeditor.export.ImageStacker;
+import fr.videoeditor.export.StackingOptions;
 import fr.videoeditor.model.VideoSegment;
 import fr.videoeditor.ui.TimelinePanel;
 import fr.videoeditor.ui.VideoPreviewPanel;
@@ -13,7 +15,10 @@ import org.bytedeco.javacv.Frame;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.prefs.Preferences;
 
 /**
@@ -118,6 +123,13 @@ public class VideoEditorFrame extends JFrame {
         stackingButton.addActionListener(e -> configureStacking());
         panel.add(stackingButton);
         
+        // Bouton calibration (bias / flat)
+        JButton calibrationButton = new JButton("🎚 Calibration");
+        calibrationButton.setFont(new Font("Arial", Font.BOLD, 12));
+        calibrationButton.setToolTipText("Frames de bias et de flat du segment sélectionné");
+        calibrationButton.addActionListener(e -> configureCalibration());
+        panel.add(calibrationButton);
+        
         // Bouton extraire images
         JButton extractButton = new JButton("🖼 Extraire Images");
         extractButton.setFont(new Font("Arial", Font.BOLD, 12));
@@ -189,6 +201,7 @@ public class VideoEditorFrame extends JFrame {
         applyOffsetCheckBox.setFont(new Font("Arial", Font.BOLD, 12));
         applyOffsetCheckBox.setToolTipText("<html>Calcule un Master Dark à partir des frames offset<br>" +
                                           "et le soustrait de chaque frame exportée<br>" +
+                                          "(et divise par le flat du segment s'il est défini)<br>" +
                                           "(Réduit le bruit thermique comme pour le stacking)</html>");
         applyOffsetCheckBox.setSelected(false);
         panel.add(applyOffsetCheckBox);
@@ -1121,6 +1134,126 @@ public class VideoEditorFrame extends JFrame {
         previewPanel.loadFrame(selected.getVideoFile(), selected.getStartTime());
     }
     
+    private void configureCalibration() {
+        VideoSegment selected = timelinePanel.getSelectedSegment();
+        if (selected == null) {
+            JOptionPane.showMessageDialog(this,
+                "Veuillez sélectionner un segment dans la timeline",
+                "Aucun segment sélectionné",
+                JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        JDialog dialog = new JDialog(this, "Calibration du segment", true);
+        dialog.setLayout(new BorderLayout(10, 10));
+        dialog.setSize(520, 330);
+        dialog.setLocationRelativeTo(this);
+        
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(5, 5, 5, 5);
+        
+        // Bias: plage du fichier du segment
+        gbc.gridy = 0;
+        gbc.gridx = 0;
+        JCheckBox biasCheckBox = new JCheckBox("Bias (s):", selected.isBiasEnabled());
+        panel.add(biasCheckBox, gbc);
+        
+        gbc.gridx = 1;
+        JSpinner biasStartSpinner = new JSpinner(new SpinnerNumberModel(
+            selected.getBiasStart(), 0.0, selected.getDuration(), 0.1));
+        JSpinner biasEndSpinner = new JSpinner(new SpinnerNumberModel(
+            selected.getBiasEnd(), 0.0, selected.getDuration(), 0.1));
+        JPanel biasPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        biasPanel.add(biasStartSpinner);
+        biasPanel.add(new JLabel("à"));
+        biasPanel.add(biasEndSpinner);
+        panel.add(biasPanel, gbc);
+        
+        // Flat: plage d'un autre fichier (ou du même)
+        gbc.gridy = 1;
+        gbc.gridx = 0;
+        JCheckBox flatCheckBox = new JCheckBox("Flat (s):", selected.isFlatEnabled());
+        panel.add(flatCheckBox, gbc);
+        
+        gbc.gridx = 1;
+        JSpinner flatStartSpinner = new JSpinner(new SpinnerNumberModel(
+            selected.getFlatStart(), 0.0, 1_000_000.0, 0.1));
+        JSpinner flatEndSpinner = new JSpinner(new SpinnerNumberModel(
+            selected.getFlatEnd(), 0.0, 1_000_000.0, 0.1));
+        JPanel flatPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        flatPanel.add(flatStartSpinner);
+        flatPanel.add(new JLabel("à"));
+        flatPanel.add(flatEndSpinner);
+        panel.add(flatPanel, gbc);
+        
+        gbc.gridy = 2;
+        gbc.gridx = 0;
+        panel.add(new JLabel("Vidéo des flats:"), gbc);
+        
+        gbc.gridx = 1;
+        JTextField flatFileField = new JTextField(selected.getFlatFile().getAbsolutePath(), 20);
+        flatFileField.setEditable(false);
+        JButton flatBrowseButton = new JButton("...");
+        JPanel flatFilePanel = new JPanel(new BorderLayout(5, 5));
+        flatFilePanel.add(flatFileField, BorderLayout.CENTER);
+        flatFilePanel.add(flatBrowseButton, BorderLayout.EAST);
+        panel.add(flatFilePanel, gbc);
+        
+        flatBrowseButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser(selected.getFlatFile().getParentFile());
+            chooser.setFileFilter(new FileNameExtensionFilter(
+                "Fichiers vidéo (*.mp4, *.avi, *.mov, *.mkv)", 
+                "mp4", "avi", "mov", "mkv"));
+            if (chooser.showOpenDialog(dialog) == JFileChooser.APPROVE_OPTION) {
+                flatFileField.setText(chooser.getSelectedFile().getAbsolutePath());
+            }
+        });
+        
+        // Info
+        gbc.gridy = 3;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        JTextArea infoArea = new JTextArea(
+            "Le dark utilise les frames d'offset (Shift+clic sur la timeline).\n" +
+            "Le bias est soustrait du flat, le flat normalisé divise les frames.\n" +
+            "Les masters sont conservés dans ~/.video-editor/calibration\n" +
+            "et réutilisés tant que la capture et la plage sont identiques.");
+        infoArea.setEditable(false);
+        infoArea.setBackground(panel.getBackground());
+        infoArea.setFont(new Font("Arial", Font.ITALIC, 11));
+        panel.add(infoArea, gbc);
+        
+        dialog.add(panel, BorderLayout.CENTER);
+        
+        // Boutons
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton okButton = new JButton("OK");
+        JButton cancelButton = new JButton("Annuler");
+        
+        okButton.addActionListener(e -> {
+            selected.setBiasEnabled(biasCheckBox.isSelected());
+            selected.setBiasStart((Double) biasStartSpinner.getValue());
+            selected.setBiasEnd((Double) biasEndSpinner.getValue());
+            selected.setFlatEnabled(flatCheckBox.isSelected());
+            selected.setFlatStart((Double) flatStartSpinner.getValue());
+            selected.setFlatEnd((Double) flatEndSpinner.getValue());
+            File flatFile = new File(flatFileField.getText());
+            selected.setFlatFile(flatFile.equals(selected.getVideoFile()) ? null : flatFile);
+            dialog.dispose();
+        });
+        
+        cancelButton.addActionListener(e -> dialog.dispose());
+        
+        buttonPanel.add(okButton);
+        buttonPanel.add(cancelButton);
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+        
+        dialog.setVisible(true);
+    }
+    
     private void configureStacking() {
         VideoSegment selected = timelinePanel.getSelectedSegment();
         if (selected == null) {
@@ -1133,7 +1266,7 @@ public class VideoEditorFrame extends JFrame {
         
         JDialog dialog = new JDialog(this, "Stacking d'Images", true);
         dialog.setLayout(new BorderLayout(10, 10));
-        dialog.setSize(500, 250);
+        dialog.setSize(520, 520);
         dialog.setLocationRelativeTo(this);
         
         JPanel panel = new JPanel(new GridBagLayout());
@@ -1165,9 +1298,108 @@ public class VideoEditorFrame extends JFrame {
         JComboBox<String> formatCombo = new JComboBox<>(new String[]{"png", "jpg", "fits"});
         panel.add(formatCombo, gbc);
         
-        // Fichier de sortie
+        // Décodeurs parallèles
         gbc.gridy = 3;
         gbc.gridx = 0;
+        panel.add(new JLabel("Décodeurs parallèles:"), gbc);
+        
+        gbc.gridx = 1;
+        StackingOptions defaultOptions = new StackingOptions();
+        JSpinner workersSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getWorkerCount(), 1, 64, 1));
+        workersSpinner.setToolTipText("Nombre de FFmpegFrameGrabber décodant le segment en parallèle");
+        panel.add(workersSpinner, gbc);
+        
+        // Méthode de combinaison
+        gbc.gridy = 4;
+        gbc.gridx = 0;
+        panel.add(new JLabel("Méthode:"), gbc);
+        
+        gbc.gridx = 1;
+        JComboBox<StackingOptions.Method> methodCombo = new JComboBox<>(StackingOptions.Method.values());
+        methodCombo.setSelectedItem(defaultOptions.getMethod());
+        panel.add(methodCombo, gbc);
+        
+        gbc.gridy = 5;
+        gbc.gridx = 0;
+        panel.add(new JLabel("Kappa (écarts-types):"), gbc);
+        
+        gbc.gridx = 1;
+        JSpinner kappaSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getKappa(), 0.5, 10.0, 0.1));
+        kappaSpinner.setToolTipText("Rejette les pixels au-delà de moyenne ± kappa × sigma (satellites, avions, pixels chauds)");
+        kappaSpinner.setEnabled(false);
+        panel.add(kappaSpinner, gbc);
+        
+        gbc.gridy = 6;
+        gbc.gridx = 0;
+        panel.add(new JLabel("Budget mémoire médiane (Mo):"), gbc);
+        
+        gbc.gridx = 1;
+        JSpinner budgetSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getMedianMemoryBudgetMb(), 16, 65536, 64));
+        budgetSpinner.setToolTipText("Mémoire de travail du calcul de médiane; les frames sont stockées sur disque");
+        budgetSpinner.setEnabled(false);
+        panel.add(budgetSpinner, gbc);
+        
+        methodCombo.addActionListener(e -> {
+            Object method = methodCombo.getSelectedItem();
+            kappaSpinner.setEnabled(method == StackingOptions.Method.SIGMA_CLIP);
+            budgetSpinner.setEnabled(method == StackingOptions.Method.MEDIAN);
+        });
+        
+        // Recalage
+        gbc.gridy = 7;
+        gbc.gridx = 0;
+        JCheckBox alignCheckBox = new JCheckBox("Recaler les frames");
+        alignCheckBox.setToolTipText("<html>Corrige la dérive d'une monture non motorisée<br>" +
+                                     "par corrélation de phase sur la première frame</html>");
+        panel.add(alignCheckBox, gbc);
+        
+        gbc.gridx = 1;
+        JCheckBox rotationCheckBox = new JCheckBox("Inclure la rotation de champ");
+        rotationCheckBox.setEnabled(false);
+        alignCheckBox.addActionListener(e -> rotationCheckBox.setEnabled(alignCheckBox.isSelected()));
+        panel.add(rotationCheckBox, gbc);
+        
+        // Lucky imaging
+        gbc.gridy = 8;
+        gbc.gridx = 0;
+        JCheckBox selectionCheckBox = new JCheckBox("Garder les plus nettes");
+        selectionCheckBox.setToolTipText("<html>Lucky imaging: une passe rapide note la netteté de chaque frame,<br>" +
+                                         "seules les meilleures sont stackées</html>");
+        panel.add(selectionCheckBox, gbc);
+        
+        gbc.gridx = 1;
+        JSpinner percentSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getSelectionPercent(), 0.1, 100.0, 1.0));
+        JSpinner countSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 100));
+        countSpinner.setToolTipText("Nombre de frames gardées (0 = utiliser le pourcentage)");
+        JPanel selectionPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        selectionPanel.add(percentSpinner);
+        selectionPanel.add(new JLabel("% ou"));
+        selectionPanel.add(countSpinner);
+        selectionPanel.add(new JLabel("frames"));
+        panel.add(selectionPanel, gbc);
+        
+        gbc.gridy = 9;
+        gbc.gridx = 1;
+        JCheckBox scoresCheckBox = new JCheckBox("Exporter les scores (CSV)");
+        panel.add(scoresCheckBox, gbc);
+        
+        percentSpinner.setEnabled(false);
+        countSpinner.setEnabled(false);
+        scoresCheckBox.setEnabled(false);
+        selectionCheckBox.addActionListener(e -> {
+            boolean selection = selectionCheckBox.isSelected();
+            percentSpinner.setEnabled(selection);
+            countSpinner.setEnabled(selection);
+            scoresCheckBox.setEnabled(selection);
+        });
+        
+        // Fichier de sortie
+        gbc.gridy = 10;
+        gbc.gridx = 0;
         panel.add(new JLabel("Fichier de sortie:"), gbc);
         
         gbc.gridx = 1;
@@ -1206,12 +1438,14 @@ public class VideoEditorFrame extends JFrame {
         });
         
         // Info
-        gbc.gridy = 4;
+        gbc.gridy = 11;
         gbc.gridx = 0;
         gbc.gridwidth = 2;
         JTextArea infoArea = new JTextArea(
             "Le stacking combine toutes les frames du segment\n" +
             "pour créer une seule image plus lumineuse.\n" +
+            "Sigma-clipping: deux passes, rejette les valeurs aberrantes.\n" +
+            "Médiane: frames stockées dans un fichier temporaire.\n" +
             "FITS 32 bits: Format astronomique haute précision.");
         infoArea.setEditable(false);
         infoArea.setBackground(panel.getBackground());
@@ -1228,6 +1462,22 @@ public class VideoEditorFrame extends JFrame {
         okButton.addActionListener(e -> {
             String format = (String) formatCombo.getSelectedItem();
             File outputFile = new File(fileField.getText());
+            StackingOptions options = new StackingOptions();
+            options.setWorkerCount((Integer) workersSpinner.getValue());
+            options.setMethod((StackingOptions.Method) methodCombo.getSelectedItem());
+            options.setKappa((Double) kappaSpinner.getValue());
+            options.setMedianMemoryBudgetMb((Integer) budgetSpinner.getValue());
+            options.setAlignmentEnabled(alignCheckBox.isSelected());
+            options.setRotationEnabled(rotationCheckBox.isSelected());
+            options.setFrameSelectionEnabled(selectionCheckBox.isSelected());
+            options.setSelectionPercent((Double) percentSpinner.getValue());
+            options.setSelectionCount((Integer) countSpinner.getValue());
+            if (selectionCheckBox.isSelected() && scoresCheckBox.isSelected()) {
+                String outputPath = outputFile.getAbsolutePath();
+                int dot = outputPath.lastIndexOf('.');
+                options.setScoresFile(new File((dot > 0 ? outputPath.substring(0, dot) : outputPath) 
+                                               + "_scores.csv"));
+            }
             
             dialog.dispose();
             
@@ -1235,7 +1485,9 @@ public class VideoEditorFrame extends JFrame {
             progressBar.setValue(0);
             statusLabel.setText("Stacking en cours...");
             
-            ImageStacker.stackSegment(selected, outputFile, format, brightnessMultiplier,
+            options.setPreviewEnabled(true);
+            
+            ImageStacker.stackSegment(selected, outputFile, format, brightnessMultiplier, options,
                 new ImageStacker.ProgressListener() {
                     @Override
                     public void onProgress(int current, int total, String message) {
@@ -1244,6 +1496,11 @@ public class VideoEditorFrame extends JFrame {
                         });
                     }
                     
+                    @Override
+                    public void onPreview(BufferedImage preview, int frameCount) {
+                        previewPanel.showStackPreview(preview, frameCount);
+                    }
+                    
                     @Override
                     public void onComplete(boolean success, String message) {
                         SwingUtilities.invokeLater(() -> {
@@ -1336,7 +1593,7 @@ public class VideoEditorFrame extends JFrame {
         // Dialogue de configuration
         JDialog dialog = new JDialog(this, "Extraction des Images", true);
         dialog.setLayout(new BorderLayout(10, 10));
-        dialog.setSize(500, 250);
+        dialog.setSize(500, 500);
         dialog.setLocationRelativeTo(this);
         
         JPanel panel = new JPanel(new GridBagLayout());
@@ -1365,12 +1622,99 @@ public class VideoEditorFrame extends JFrame {
         panel.add(new JLabel("Format d'image:"), gbc);
         
         gbc.gridx = 1;
-        JComboBox<String> formatCombo = new JComboBox<>(new String[]{"png", "jpg"});
+        JComboBox<String> formatCombo = new JComboBox<>(new String[]{"png", "jpg", "npy"});
+        formatCombo.setToolTipText("npy: toutes les frames dans un seul cube NumPy (RGB 8 bits), lisible par np.memmap");
         panel.add(formatCombo, gbc);
         
-        // Dossier de sortie
+        // Frames à extraire
         gbc.gridy = 3;
         gbc.gridx = 0;
+        panel.add(new JLabel("Frames:"), gbc);
+        
+        gbc.gridx = 1;
+        ExtractionOptions defaultOptions = new ExtractionOptions();
+        JComboBox<ExtractionOptions.Mode> modeCombo = new JComboBox<>(ExtractionOptions.Mode.values());
+        modeCombo.setSelectedItem(defaultOptions.getMode());
+        panel.add(modeCombo, gbc);
+        
+        gbc.gridy = 4;
+        gbc.gridx = 0;
+        panel.add(new JLabel("N:"), gbc);
+        
+        gbc.gridx = 1;
+        JSpinner everySpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getEveryN(), 1, 100_000, 1));
+        everySpinner.setEnabled(false);
+        panel.add(everySpinner, gbc);
+        
+        gbc.gridy = 5;
+        gbc.gridx = 0;
+        panel.add(new JLabel("Intervalle T (s):"), gbc);
+        
+        gbc.gridx = 1;
+        JSpinner intervalSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getIntervalSeconds(), 0.01, 3600.0, 0.5));
+        intervalSpinner.setEnabled(false);
+        panel.add(intervalSpinner, gbc);
+        
+        gbc.gridy = 6;
+        gbc.gridx = 0;
+        panel.add(new JLabel("Nombre de frames:"), gbc);
+        
+        gbc.gridx = 1;
+        JSpinner countSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getTotalCount(), 1, 1_000_000, 10));
+        countSpinner.setEnabled(false);
+        panel.add(countSpinner, gbc);
+        
+        modeCombo.addActionListener(e -> {
+            Object mode = modeCombo.getSelectedItem();
+            everySpinner.setEnabled(mode == ExtractionOptions.Mode.EVERY_NTH);
+            intervalSpinner.setEnabled(mode == ExtractionOptions.Mode.INTERVAL);
+            countSpinner.setEnabled(mode == ExtractionOptions.Mode.COUNT);
+        });
+        
+        gbc.gridy = 7;
+        gbc.gridx = 0;
+        panel.add(new JLabel("Largeur des vignettes:"), gbc);
+        
+        gbc.gridx = 1;
+        JSpinner thumbnailSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getThumbnailWidth(), 0, 8192, 160));
+        thumbnailSpinner.setToolTipText("Largeur en pixels des images écrites (0 = résolution d'origine)");
+        panel.add(thumbnailSpinner, gbc);
+        
+        // Dédoublonnage
+        gbc.gridy = 8;
+        gbc.gridx = 0;
+        JCheckBox dedupCheckBox = new JCheckBox("Écarter les doublons");
+        dedupCheckBox.setToolTipText("<html>Compare une empreinte perceptuelle (dHash) de chaque frame<br>" +
+                                     "à celle de la dernière frame gardée</html>");
+        panel.add(dedupCheckBox, gbc);
+        
+        gbc.gridx = 1;
+        JSpinner distanceSpinner = new JSpinner(new SpinnerNumberModel(
+            defaultOptions.getMaxHashDistance(), 0, 32, 1));
+        distanceSpinner.setToolTipText("Distance de Hamming maximale (bits sur 64) pour considérer deux frames identiques");
+        distanceSpinner.setEnabled(false);
+        dedupCheckBox.addActionListener(e -> distanceSpinner.setEnabled(dedupCheckBox.isSelected()));
+        panel.add(distanceSpinner, gbc);
+        
+        // Segments: ceux d'un même fichier sont extraits en une seule passe de décodage
+        gbc.gridy = 9;
+        gbc.gridx = 0;
+        gbc.gridwidth = 2;
+        List<VideoSegment> allSegments = timelinePanel.getSegments();
+        JCheckBox allSegmentsCheckBox = new JCheckBox(
+            String.format("Tous les segments de la timeline (%d)", allSegments.size()));
+        allSegmentsCheckBox.setToolTipText("Un sous-dossier par segment; un seul décodage par fichier vidéo");
+        allSegmentsCheckBox.setEnabled(allSegments.size() > 1);
+        panel.add(allSegmentsCheckBox, gbc);
+        
+        // Dossier de sortie
+        gbc.gridy = 10;
+        gbc.gridx = 0;
+        gbc.gridwidth = 1;
         panel.add(new JLabel("Dossier de sortie:"), gbc);
         
         gbc.gridx = 1;
@@ -1412,43 +1756,57 @@ public class VideoEditorFrame extends JFrame {
             String format = (String) formatCombo.getSelectedItem();
             File outputDir = new File(folderField.getText());
             
+            ExtractionOptions options = new ExtractionOptions();
+            options.setMode((ExtractionOptions.Mode) modeCombo.getSelectedItem());
+            options.setEveryN((Integer) everySpinner.getValue());
+            options.setIntervalSeconds((Double) intervalSpinner.getValue());
+            options.setTotalCount((Integer) countSpinner.getValue());
+            options.setThumbnailWidth((Integer) thumbnailSpinner.getValue());
+            options.setDeduplicationEnabled(dedupCheckBox.isSelected());
+            options.setMaxHashDistance((Integer) distanceSpinner.getValue());
+            
             dialog.dispose();
             
             progressBar.setVisible(true);
             progressBar.setValue(0);
             statusLabel.setText("Extraction des frames en cours...");
             
-            FrameExtractor.extractFrames(selected, outputDir, format, 
-                new FrameExtractor.ProgressListener() {
-                    @Override
-                    public void onProgress(int current, int total, String message) {
-                        SwingUtilities.invokeLater(() -> {
-                            int percent = (int) ((current / (double) total) * 100);
-                            progressBar.setValue(percent);
-                            statusLabel.setText(message);
-                        });
-                    }
+            FrameExtractor.ProgressListener listener = new FrameExtractor.ProgressListener() {
+                @Override
+                public void onProgress(int current, int total, String message) {
+                    SwingUtilities.invokeLater(() -> {
+                        int percent = (int) ((current / (double) total) * 100);
+                        progressBar.setValue(percent);
+                        statusLabel.setText(message);
+                    });
+                }
                     
-                    @Override
-                    public void onComplete(boolean success, String message) {
-                        SwingUtilities.invokeLater(() -> {
-                            progressBar.setVisible(false);
-                            statusLabel.setText("Extraction terminée");
+                @Override
+                public void onComplete(boolean success, String message) {
+                    SwingUtilities.invokeLater(() -> {
+                        progressBar.setVisible(false);
+                        statusLabel.setText("Extraction terminée");
                             
-                            if (success) {
-                                JOptionPane.showMessageDialog(VideoEditorFrame.this,
-                                    message,
-                                    "Extraction réussie",
-                                    JOptionPane.INFORMATION_MESSAGE);
-                            } else {
-                                JOptionPane.showMessageDialog(VideoEditorFrame.this,
-                                    message,
-                                    "Erreur",
-                                    JOptionPane.ERROR_MESSAGE);
-                            }
-                        });
-                    }
-                });
+                        if (success) {
+                            JOptionPane.showMessageDialog(VideoEditorFrame.this,
+                                message,
+                                "Extraction réussie",
+                                JOptionPane.INFORMATION_MESSAGE);
+                        } else {
+                            JOptionPane.showMessageDialog(VideoEditorFrame.this,
+                                message,
+                                "Erreur",
+                                JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                }
+            };
+            
+            if (allSegmentsCheckBox.isSelected()) {
+                FrameExtractor.extractFrames(new ArrayList<>(allSegments), outputDir, format, options, listener);
+            } else {
+                FrameExtractor.extractFrames(selected, outputDir, format, options, listener);
+            }
         });
         
         cancelButton.addActionListener(e -> dialog.dispose());
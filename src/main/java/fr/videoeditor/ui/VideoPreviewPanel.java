@@ -7,6 +7,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Panneau de prévisualisation vidéo
@@ -15,6 +16,8 @@ public class VideoPreviewPanel extends JPanel {
     private BufferedImage currentFrame;
     private String statusMessage = "Aucune vidéo chargée";
     private double brightnessMultiplier = 1.0;
+    private final AtomicReference<BufferedImage> pendingPreview = new AtomicReference<>();
+    private volatile int pendingPreviewFrames;
     
     public VideoPreviewPanel() {
         setPreferredSize(new Dimension(640, 360));
@@ -70,6 +73,25 @@ public class VideoPreviewPanel extends JPanel {
         worker.execute();
     }
     
+    /**
+     * Affiche un aperçu de stacking en cours; appelable depuis n'importe quel thread.
+     * Les aperçus arrivés avant que l'EDT n'ait affiché le précédent le remplacent:
+     * au plus une tâche en attente sur l'EDT.
+     */
+    public void showStackPreview(BufferedImage preview, int frameCount) {
+        pendingPreviewFrames = frameCount;
+        if (pendingPreview.getAndSet(preview) == null) {
+            SwingUtilities.invokeLater(() -> {
+                BufferedImage latest = pendingPreview.getAndSet(null);
+                if (latest != null) {
+                    currentFrame = latest;
+                    statusMessage = String.format("Stacking: %d frames", pendingPreviewFrames);
+                    repaint();
+                }
+            });
+        }
+    }
+    
     public void clearFrame() {
         currentFrame = null;
         statusMessage = "Aucune vidéo chargée";